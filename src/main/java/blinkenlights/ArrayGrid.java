@@ -0,0 +1,73 @@
+package blinkenlights;
+
+/**
+ * A {@link ValueGrid} backed by a single <tt>int</tt> array, in the same row-major order as the
+ * one-dimensional Node grid. Reset detection uses the vectorisable {@link ResetScanner}, with any
+ * {@link ResetRule}.
+ */
+public class ArrayGrid implements ValueGrid {
+
+  private final int width;
+  private final int height;
+  private final int[] values;
+  private final int[] flags; // Scratch space for the reset scan
+  private final ResetRule rule;
+
+  /**
+   * Constructor, for the {@link ResetRule#DEFAULT default rule}
+   * 
+   * @param width The number of columns
+   * @param height The number of rows
+   */
+  public ArrayGrid(int width, int height) {
+    this(width, height, ResetRule.DEFAULT);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param rule The rule deciding which cells are reset together
+   */
+  public ArrayGrid(int width, int height, ResetRule rule) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    this.width = width;
+    this.height = height;
+    values = new int[width * height];
+    flags = new int[width];
+    this.rule = rule;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getValue(int x, int y) {
+    return values[y * width + x];
+  }
+
+  @Override
+  public void click(int x, int y) {
+    int row = y * width;
+    for (int i = row; i < row + width; i++)
+      values[i]++;
+    for (int i = x; i < row; i += width)
+      values[i]++;
+    for (int i = row + width + x; i < values.length; i += width)
+      values[i]++;
+  }
+
+  @Override
+  public int scanResets(ResetListener listener) {
+    return ResetScanner.scan(values, width, height, flags, rule, listener);
+  }
+}
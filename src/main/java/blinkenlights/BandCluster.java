@@ -0,0 +1,77 @@
+package blinkenlights;
+
+/**
+ * A partitioned grid with all its {@link GridBand}s in one process, connected by a
+ * {@link LoopbackTransport}. Behaves as a single {@link ValueGrid}, which makes it easy to check the
+ * partitioned grid against the other grids, and to measure the message traffic between bands.
+ */
+public class BandCluster implements ValueGrid {
+
+  private final int width;
+  private final int height;
+  private final LoopbackTransport transport = new LoopbackTransport();
+  private final GridBand[] bands;
+
+  /**
+   * Constructor
+   * 
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param bands The number of bands. 1 <= bands <= height
+   */
+  public BandCluster(int width, int height, int bands) {
+    this.width = width;
+    this.height = height;
+    this.bands = new GridBand[bands];
+    for (int b = 0; b < bands; b++)
+      this.bands[b] = new GridBand(b, bands, width, height, transport);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * The transport between the bands
+   * 
+   * @return The {@link LoopbackTransport}, with its traffic counters
+   */
+  public LoopbackTransport getTransport() {
+    return transport;
+  }
+
+  @Override
+  public int getValue(int x, int y) {
+    return bands[GridBand.owner(y, bands.length, height)].getValue(x, y);
+  }
+
+  /**
+   * Clicks are always sent to band 0, so clicks on other bands are forwarded
+   */
+  @Override
+  public void click(int x, int y) {
+    bands[0].click(x, y);
+    transport.pump();
+  }
+
+  @Override
+  public int scanResets(ResetListener listener) {
+    for (GridBand b : bands)
+      b.startScan(listener);
+    transport.pump();
+
+    int pairs = 0;
+    for (GridBand b : bands) {
+      if (b.isScanPending())
+        throw new IllegalStateException("Band scan did not complete");
+      pairs += b.getPairs();
+    }
+    return pairs;
+  }
+}
@@ -0,0 +1,43 @@
+package blinkenlights;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Carries messages between the bands of a partitioned grid (see {@link GridBand}). A transport may
+ * connect bands in the same process or in different processes, but messages from one band to
+ * another must arrive in the order in which they were sent.
+ */
+public interface BandTransport {
+
+  /**
+   * Receives the messages sent to a band
+   */
+  interface Receiver {
+
+    /**
+     * Handle a message
+     * 
+     * @param from The band that sent the message
+     * @param message The message, positioned at its start. Only valid during this call.
+     */
+    void receive(int from, ByteBuffer message);
+  }
+
+  /**
+   * Register the receiver of a band
+   * 
+   * @param band The band number
+   * @param receiver The receiver of all messages sent to the band
+   */
+  void register(int band, Receiver receiver);
+
+  /**
+   * Send a message
+   * 
+   * @param from The sending band
+   * @param to The receiving band
+   * @param message The message, between its position and limit. The transport may not keep a
+   *        reference to the buffer after this call.
+   */
+  void send(int from, int to, ByteBuffer message);
+}
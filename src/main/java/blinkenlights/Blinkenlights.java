@@ -2,9 +2,20 @@ package blinkenlights;
 
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.awt.geom.Point2D;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
 
 import blinkenlights.Event.EventType;
 
@@ -19,19 +30,95 @@ import blinkenlights.Event.EventType;
  *
  */
 public class Blinkenlights implements MouseListener {
+
+  /**
+   * What to do when more events are pending than the event capacity allows
+   */
+  public static enum OverloadPolicy {
+    GROW, // Let the queue grow without limit
+    SHED_COSMETIC, // Plan no pen colour resets; pens are reset after the next frame instead.
+                   // Clicks are always coalesced.
+    REJECT_INPUT // As SHED_COSMETIC, and refuse new clicks until the queue is below capacity
+  }
+
   // Constants used in timing
-  private static final long REFRESH_RATE = 50000000l; // 0.5 msec
-  public static final long RESET_DELAY = 400000000l; // 4 msec
-  private static final long UPDATE_RATE = 10000000l; // 0.1 msec
+  private static final long REFRESH_RATE = 50000000l; // 50 msec; the default minimum frame interval
+  public static final long RESET_DELAY = 400000000l; // 400 msec
+  private static final long UPDATE_RATE = 10000000l; // 10 msec
+  private static final int LOAD_LIMIT = 10000; // Events per frame above which drawing backs off
+  private static final long REPORT_RATE = 10000000000l; // Frame rate report interval of go()
+  private static final int HOTTEST = 10; // Number of hottest cells kept by the statistics
+  private static final int MAX_POOLED = 1 << 16; // Most handled events kept for reuse
+  private static final int PARALLEL_NODES = 1 << 16; // Grids this large are built in parallel
+  private static final int STARVATION_LIMIT = 256; // Events a due pen reset may be passed over by
+
+  // Priority lanes: input first, then the cosmetic pen resets. Frames are never queued, see
+  // scheduleFrame(), so they need no lane.
+  private static final int INPUT_LANE = 0;
+  private static final int COSMETIC_LANE = 1;
 
-  private MinPQ<Event> pq; // Priority Queue holding (timed) system events
+  private final LaneQueue pq; // Priority Queue holding (timed) system events, in priority lanes
   private long systemTime; // The simulation time
+  private long eventSequence = 0; // Events at the same time are handled in the order created
+  private final ClickQueue inbox = new ClickQueue(); // Clicks waiting to become events
+  private final EventFeed feed = new EventFeed(); // Subscribable stream of clicks and resets
+  private final List<FrameListener> frameListeners = new CopyOnWriteArrayList<>();
+  private final BitSet changed = new BitSet(); // Nodes changed since the last frame, by 1D index
+  private final GridStats stats; // Live aggregates of the values
+  private boolean coalesceClicks = true; // Apply the clicks of a tick as one batch
+  private FramePacer pacer = new FramePacer(1e9 / REFRESH_RATE, LOAD_LIMIT);
+  private long frameDue = Long.MAX_VALUE; // Time of the planned frame, if any
+  private volatile boolean frameRequested = false; // Draw a frame even if nothing changed
+  private int eventsSinceFrame = 0;
+  private ResetRule resetRule = ResetRule.DEFAULT;
+  private boolean batchDispatch = false; // Dispatch due events in runs of the same type
+  private boolean priorityLanes; // Handle due clicks ahead of due pen resets
+
+  // The event being handled, and per node the event that last coloured its pen. A pen reset that
+  // is handled after a later event coloured the pen again is stale, and is ignored.
+  private long dispatchTime;
+  private long dispatchSequence;
+  private final long[] penTimes;
+  private final long[] penSequences;
+
+  // Scratch space for batch dispatch
+  private Event[] dueEvents = new Event[64];
+  private Node[] dueTargets = new Node[64];
+  private final ClickBatch dueClicks;
+
+  // Handled events and click batches, kept for reuse so a steady workload does not allocate
+  private Event[] freeEvents = new Event[64];
+  private int freeCount = 0;
+  private final ArrayDeque<ClickBatch> freeBatches = new ArrayDeque<>();
+  private long handledEvents = 0;
+  private long valueChanges = 0; // Measures the fan-out of clicks, for tracing
+
+  // Startup timing, by the wall clock
+  private final long createdAt;
+  private final long builtAt;
+  private volatile long firstEventAt = 0; // 0 until the first event or frame has been handled
+
+  // Overload handling
+  private volatile int eventCapacity = Integer.MAX_VALUE;
+  private volatile OverloadPolicy overloadPolicy = OverloadPolicy.GROW;
+  private volatile boolean overloaded = false; // Pending events at capacity after the last step
+  private final BitSet stalePens = new BitSet(); // Nodes whose pen reset has been shed
+  private long shedEvents = 0;
+  private final AtomicLong rejectedClicks = new AtomicLong();
+
+  // Scratch space for applying a ClickBatch
+  private final int[] rowClicks;
+  private final int[] columnClicks;
+  private final int[] cellClicks;
 
   // Grid and Node properties
   private final int width;
   private final int height;
-  private Node[] grid; // One-dimensional grid for optimisation
+  private Node[] grid; // One-dimensional grid for optimisation, see xy1D
+  private final Layout layout;
   private final double nodeRadius;
+  private final boolean headless; // No JFrame: do not draw, and do not listen to the mouse
+  private final Viewport viewport; // The visible part of the grid, null when headless
 
   // Frame properties
   private double drawMin = 0.0;
@@ -49,63 +136,162 @@ public class Blinkenlights implements MouseListener {
    * @param gridSize The length/width of the (square) grid
    */
   public Blinkenlights(int gridSize) {
+    this(gridSize, false);
+  }
+
+  /**
+   * Constructor. Populates the grid with nodes, including the information about their neighbours.
+   * A headless grid never touches {@link Visual}, so many of them can run in one JVM, and without
+   * a display. Clicks are then only received through {@link #click(int, int)}.
+   * 
+   * @param gridSize The length/width of the (square) grid
+   * @param headless Whether to run without the JFrame
+   */
+  public Blinkenlights(int gridSize, boolean headless) {
+    this(gridSize, headless, Layout.rowMajor(gridSize, gridSize));
+  }
+
+  /**
+   * Constructor. As {@link #Blinkenlights(int, boolean)}, keeping the nodes in the given layout.
+   * The nodes are also created in the order of the layout, so nodes that are close in the grid
+   * tend to be close on the heap.
+   * 
+   * @param gridSize The length/width of the (square) grid
+   * @param headless Whether to run without the JFrame
+   * @param layout The layout of the grid
+   * @throws IllegalArgumentException if the layout is not for a grid of this size
+   */
+  public Blinkenlights(int gridSize, boolean headless, Layout layout) {
+    if (layout.getWidth() != gridSize || layout.getHeight() != gridSize)
+      throw new IllegalArgumentException("layout is not for a grid of size " + gridSize);
+    createdAt = System.nanoTime();
+    // Create the JFrame on another thread while the grid is built
+    Thread display = headless ? null : startDisplay();
+
     // Configure grid, and nodes
     width = gridSize;
     height = gridSize;
-    grid = new Node[width * height];
+    this.layout = layout;
+    grid = new Node[layout.size()];
     nodeRadius = (drawMax - drawMin) / gridSize / 2;
+    this.headless = headless;
+    pq = new LaneQueue(COSMETIC_LANE + 1, STARVATION_LIMIT);
+    setPriorityLanes(true);
+    penTimes = new long[layout.size()];
+    penSequences = new long[layout.size()];
+    rowClicks = new int[height];
+    columnClicks = new int[width];
+    cellClicks = new int[layout.size()];
+    dueClicks = new ClickBatch(64);
+    stats = new GridStats(width, height, HOTTEST);
 
-    // Populate grid
-    System.out.printf("Creating grid of size %d [%d x %d]%n", grid.length, width, height);
+    // Populate grid, and provide each node with information about its neighbours. Large grids are
+    // built in ranges of the layout on all processors: first all nodes, then all links.
+    if (!headless)
+      System.out.printf("Creating grid of size %d [%d x %d], %s%n", width * height, width, height,
+          layout);
+    if (width * height < PARALLEL_NODES) {
+      createNodes(0, grid.length);
+      wireNodes(0, grid.length);
+    } else
+      buildInParallel();
+    builtAt = System.nanoTime();
 
-    double rx = nodeRadius; // X-position of node on JFrame
-    double ry = nodeRadius; // Y-position of node on JFrame
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        grid[xy1D(x, y)] = new Node(rx, ry, nodeRadius, x, y, this);
-        ry += 2 * nodeRadius;
-      }
-      ry = nodeRadius; // Reset for new row
-      rx += 2 * nodeRadius;
+    if (headless) {
+      viewport = null;
+      return;
     }
 
-    // Provide each node with information about its neighbours
-    for (Node n : grid) {
-      n.addNeighbours(neighbours(n));
+    // Display JFrame, and add ourselves as a MouseListener. The viewport zooms and pans.
+    try {
+      display.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
-
-    // Display JFrame, and add ourselves as a MouseListener
+    viewport = new Viewport(this, drawMin, drawMax);
     Visual.addListener(this);
+    Visual.addListener(viewport);
+    Visual.addMotionListener(viewport);
+    Visual.addWheelListener(viewport);
     Visual.show(0);
   }
 
   /**
-   * Finds the neighbours of a particular node in the grid, using x and y grid coordinates
-   * 
-   * @param x The x-position of the node. 0 <= x < gridSize
-   * @param y The y-position of the node. 0 <= y < gridSize
-   * @return List of (non-diagonal) neighbouring nodes
+   * Starts a thread that initialises {@link Visual}, which creates the JFrame and its images. Any
+   * other thread using Visual waits until that is done.
    */
-  private List<Node> neighbours(Node n) {
-    int x = n.getCoord().x;
-    int y = n.getCoord().y;
-    ArrayList<Node> neighbours = new ArrayList<>();
-    int j = y;
-    for (int i = x - 1; i <= x + 1; i++)
-      if (i >= 0 && i < width && j >= 0 && j < height && xy1D(i, j) != xy1D(x, y)) {
-        neighbours.add(grid[xy1D(i, j)]);
+  private static Thread startDisplay() {
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Visual.getCanvasWidth();
       }
+    }, "display-init");
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
 
-    int i = x;
-    for (j = y - 1; j <= y + 1; j++) {
-      if (i >= 0 && i < width && j >= 0 && j < height && xy1D(i, j) != xy1D(x, y)) {
-        neighbours.add(grid[xy1D(i, j)]);
-      }
+  // Create the nodes of a range of the layout, in its order
+  private void createNodes(int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (!layout.contains(i))
+        continue;
+      int x = layout.x(i);
+      int y = layout.y(i);
+      grid[i] =
+          new Node(nodeRadius * (2 * x + 1), nodeRadius * (2 * y + 1), nodeRadius, x, y, this);
     }
+  }
+
+  // Link the nodes of a range of the layout to their neighbours. All nodes must exist.
+  private void wireNodes(int from, int to) {
+    for (int i = from; i < to; i++)
+      if (grid[i] != null)
+        grid[i].wire(grid, layout);
+  }
 
-    // System.out.printf("Neighbours of [%d, %d] are %s%n", x, y,
-    // n.toString());
-    return neighbours;
+  /**
+   * Builds the grid in ranges of the layout, one task per range on a pool of all processors. Nodes
+   * are wired only once all of them exist; completing the tasks publishes the nodes to this thread.
+   */
+  private void buildInParallel() {
+    int threads = Runtime.getRuntime().availableProcessors();
+    int bands = 4 * threads;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<Void>> create = new ArrayList<>(bands);
+      List<Callable<Void>> wire = new ArrayList<>(bands);
+      for (int b = 0; b < bands; b++) {
+        final int from = (int) ((long) grid.length * b / bands);
+        final int to = (int) ((long) grid.length * (b + 1) / bands);
+        create.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            createNodes(from, to);
+            return null;
+          }
+        });
+        wire.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            wireNodes(from, to);
+            return null;
+          }
+        });
+      }
+      for (Future<Void> f : pool.invokeAll(create))
+        f.get();
+      for (Future<Void> f : pool.invokeAll(wire))
+        f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while building the grid", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("building the grid failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
   }
 
   /**
@@ -128,36 +314,216 @@ public class Blinkenlights implements MouseListener {
   }
 
   /**
-   * Helper function to transform a 2D grid value into 1D. Used for optimisation
+   * Helper function to transform a 2D grid value into 1D, following the {@link Layout}. Used for
+   * optimisation
    * 
    * @param x The 2D x-coordinate in the grid. 0 <= x < gridSize
    * @param y The 2D y-coordinate in the grid. 0 <= y < gridSize
-   * @return The equivalent 1D coordinate. 0 <= result < 2 * gridSize
+   * @return The equivalent 1D coordinate. 0 <= result < layout.size()
    */
   private int xy1D(int x, int y) {
-    return y * width + x;
+    return layout.index(x, y);
   }
 
   /**
-   * (Re)draw the visual representation of the grid.
+   * (Re)draw the visual representation of the grid, and check for resets. Only called when
+   * something has changed since the previous frame, as planned by the {@link FramePacer}.
    * 
-   * @param time The current system time. Used to plan the next call to redraw.
+   * @param time The current system time
    */
   private void redraw(long time) {
-    Visual.clear();
-    for (Node n : grid)
-      n.draw();
-    Visual.show(0);
+    Object trace = Tracing.beginFrame();
+    long start = trace == null ? 0 : System.nanoTime();
+    int events = eventsSinceFrame;
+    // Pens coloured by the frame come after every event due at the time of the frame
+    dispatchTime = frameDue;
+    dispatchSequence = eventSequence;
+    frameDue = Long.MAX_VALUE;
+    pacer.frameDrawn(time, eventsSinceFrame);
+    eventsSinceFrame = 0;
 
-    // Add the next redraw event
-    createEvent(REFRESH_RATE, null, null, EventType.REDRAW);
+    if (!headless) {
+      viewport.update(changed);
+      viewport.draw();
+    }
+    long drawn = trace == null ? 0 : System.nanoTime();
+    int resets = 0;
 
     // FIXME: Keep a list of nodes with value 4 and only check those, not
     // all of the nodes.
-    // Check for nodes of value 4, and their neighbours
-    for (Node n : grid) {
-      n.checkReset();
-    }
+    // Check for nodes of value 4, and their neighbours. Resets change nodes, which plans the next
+    // frame to show them. Always in row-major order, whatever the layout, as an earlier reset can
+    // prevent a later one.
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++) {
+        Node n = grid[xy1D(x, y)];
+        Node other = n.checkReset(resetRule);
+        if (other != null) {
+          feed.publishReset(systemTime, n, other);
+          stats.resetOccurred(systemTime);
+          resets++;
+        }
+      }
+    stats.publish(time);
+
+    if (!headless)
+      viewport.update(changed); // The resets
+    long scanned = trace == null ? 0 : System.nanoTime();
+
+    for (FrameListener l : frameListeners)
+      l.frame(this, time);
+    if (trace != null)
+      Tracing.endFrame(trace, drawn - start, scanned - drawn, System.nanoTime() - scanned,
+          changed.cardinality(), resets, events);
+    changed.clear();
+
+    // Pens whose reset was shed have now been shown for a frame; reset them for the next one
+    for (int i = stalePens.nextSetBit(0); i >= 0; i = stalePens.nextSetBit(i + 1))
+      grid[i].handleEvent(EventType.COLOR_RESET, grid[i]);
+    stalePens.clear();
+  }
+
+  /**
+   * The number of value changes of all nodes so far
+   * 
+   * @return long with the number of changes
+   */
+  long getValueChanges() {
+    return valueChanges;
+  }
+
+  /**
+   * Whether this grid runs without the JFrame
+   * 
+   * @return true if headless
+   */
+  boolean isHeadless() {
+    return headless;
+  }
+
+  /**
+   * Called by a Node whenever its value changes, before {@link #nodeChanged(Node)}
+   * 
+   * @param n The changed Node
+   * @param old The previous value of the Node
+   */
+  void valueChanged(Node n, int old) {
+    valueChanges++;
+    stats.valueChanged(n.getCoord().x, n.getCoord().y, old, n.getValue());
+  }
+
+  /**
+   * Called by a Node whenever its value or pen colour changes
+   * 
+   * @param n The changed Node
+   */
+  void nodeChanged(Node n) {
+    changed.set(n.getCoord().y * width + n.getCoord().x); // Row-major, whatever the layout
+    scheduleFrame();
+  }
+
+  /**
+   * Plans a frame, as soon as the {@link FramePacer} allows, unless one is already planned. There
+   * is at most one planned frame, so it is kept aside rather than as a REDRAW event in the queue.
+   */
+  private void scheduleFrame() {
+    if (frameDue == Long.MAX_VALUE)
+      frameDue = pacer.nextFrame(systemTime);
+  }
+
+  /**
+   * The rule deciding which nodes are reset together
+   * 
+   * @return The {@link ResetRule}
+   */
+  public ResetRule getResetRule() {
+    return resetRule;
+  }
+
+  /**
+   * Changes the rule deciding which nodes are reset together, from the next frame on. Must be
+   * called from the simulation thread, or before the simulation starts.
+   * 
+   * @param rule The {@link ResetRule}
+   */
+  public void setResetRule(ResetRule rule) {
+    if (rule == null)
+      throw new IllegalArgumentException("rule must not be null");
+    resetRule = rule;
+  }
+
+  /**
+   * Asks for a frame to be drawn, even if nothing has changed. May be called from any thread; the
+   * frame is planned by the next step of the simulation.
+   */
+  public void requestFrame() {
+    frameRequested = true;
+  }
+
+  /**
+   * The frame pacer of this grid, which reports the achieved and target frame rates
+   * 
+   * @return The {@link FramePacer}
+   */
+  public FramePacer getFramePacer() {
+    return pacer;
+  }
+
+  /**
+   * Changes the maximum frame rate. Frames are still only drawn when something has changed.
+   * 
+   * @param fps The maximum number of frames per second
+   */
+  public void setTargetFps(double fps) {
+    pacer = new FramePacer(fps, LOAD_LIMIT);
+  }
+
+  /**
+   * The nodes whose value or pen colour changed since the previous frame. Only valid during a call
+   * to {@link FrameListener#frame(Blinkenlights, long)}, and must not be modified.
+   * 
+   * @return {@link BitSet} of the changed nodes, by one-dimensional index (y * width + x)
+   */
+  public BitSet getChanged() {
+    return changed;
+  }
+
+  /**
+   * Add a listener that is called after every frame, on the simulation thread
+   * 
+   * @param l The listener to add
+   */
+  public void addFrameListener(FrameListener l) {
+    frameListeners.add(l);
+  }
+
+  /**
+   * Remove a frame listener
+   * 
+   * @param l The listener to remove
+   */
+  public void removeFrameListener(FrameListener l) {
+    frameListeners.remove(l);
+  }
+
+  /**
+   * Live statistics of the values in this grid: their distribution, row and column sums, the reset
+   * rate and the hottest cells. Can be read from any thread while the simulation runs.
+   * 
+   * @return The {@link GridStats} of this grid
+   */
+  public GridStats getStats() {
+    return stats;
+  }
+
+  /**
+   * The feed of clicks and resets in this grid. Subscribe to it to observe the simulation without
+   * polling {@link #toString()}.
+   * 
+   * @return The {@link EventFeed} of this grid
+   */
+  public EventFeed getFeed() {
+    return feed;
   }
 
   /**
@@ -169,24 +535,69 @@ public class Blinkenlights implements MouseListener {
    * @param EventType The type of event
    */
   public void createEvent(long future, Node target, Node source, EventType type) {
-    pq.insert(new Event(systemTime + future, target, source, type));
+    if (type == EventType.COLOR_RESET) {
+      // The pen has just been coloured
+      int i = xy1D(target.getCoord().x, target.getCoord().y);
+      penTimes[i] = dispatchTime;
+      penSequences[i] = dispatchSequence;
+    }
+    if (type == EventType.COLOR_RESET && overloadPolicy != OverloadPolicy.GROW
+        && pq.size() >= eventCapacity) {
+      // Cosmetic: shed it, and reset the pen after the next frame instead
+      stalePens.set(xy1D(target.getCoord().x, target.getCoord().y));
+      shedEvents++;
+      return;
+    }
+    pq.insert(obtainEvent(systemTime + future, target, source, type, null));
+  }
+
+  // A pooled event, or a new one if the pool is empty
+  private Event obtainEvent(long t, Node target, Node source, EventType type, ClickBatch clicks) {
+    if (freeCount == 0)
+      return clicks == null ? new Event(t, target, source, type, eventSequence++)
+          : new Event(t, clicks, eventSequence++);
+    Event e = freeEvents[--freeCount];
+    freeEvents[freeCount] = null;
+    e.set(t, target, source, type, clicks, eventSequence++);
+    return e;
+  }
+
+  // Return a handled event, and its click batch, to the pools
+  private void recycle(Event e) {
+    if (e.getClicks() != null) {
+      e.getClicks().clear();
+      freeBatches.push(e.getClicks());
+    }
+    if (freeCount == MAX_POOLED)
+      return;
+    e.set(0, null, null, null, null, 0);
+    if (freeCount == freeEvents.length)
+      freeEvents = Arrays.copyOf(freeEvents, 2 * freeCount);
+    freeEvents[freeCount++] = e;
   }
 
   /**
    * Starts the program, and serves as the main loop.
    */
   public void go() {
-    systemTime = System.nanoTime();
-    // Initialize PQ with redraw event
-    pq = new MinPQ<Event>();
-    createEvent(0, null, null, EventType.REDRAW);
-
-    // Start the (infinite) loop
-    while (!pq.isEmpty()) {
-      // Check for impending event
-      // Update simulation time
-      systemTime = System.nanoTime();
-      long nearestEventTime = pq.min().getTime();
+    start(System.nanoTime());
+    long nextReport = systemTime + REPORT_RATE;
+    boolean startupReported = false;
+
+    // Start the (infinite) loop. When nothing changes the queue may be empty, until the next click.
+    while (true) {
+      // Handle all impending events, at the current time
+      long nearestEventTime = step(System.nanoTime());
+
+      if (!headless && !startupReported && getTimeToFirstEvent() >= 0) {
+        System.out.printf("Grid built in %.1f ms, first frame after %.1f ms%n",
+            getBuildTime() / 1e6, getTimeToFirstEvent() / 1e6);
+        startupReported = true;
+      }
+      if (!headless && systemTime >= nextReport) {
+        System.out.printf("Frame rate: %s%n", pacer);
+        nextReport = systemTime + REPORT_RATE;
+      }
 
       // Sleep if no impending events
       if (nearestEventTime > systemTime) {
@@ -199,17 +610,457 @@ public class Blinkenlights implements MouseListener {
           System.out.println("Error sleeping");
         }
       }
+    }
+  }
+
+  /**
+   * Prepares the simulation to be driven by {@link #step(long)}, by planning the first redraw.
+   * {@link #go()} calls this itself.
+   * 
+   * @param time The current system time
+   */
+  public void start(long time) {
+    systemTime = time;
+    // Plan the first frame
+    scheduleFrame();
+  }
+
+  /**
+   * Advances the simulation: turns the clicks received since the last step into events, and
+   * handles every event that is due at the given time. Must be called from a single thread at a
+   * time, with non-decreasing times.
+   * 
+   * @param time The current system time
+   * @return The time of the nearest future event, or {@link Long#MAX_VALUE} if there is none
+   */
+  public long step(long time) {
+    Object trace = Tracing.beginStep();
+    long handled = handledEvents;
+    // Update simulation time
+    systemTime = time;
+    if (frameRequested) {
+      frameRequested = false;
+      scheduleFrame();
+    }
+
+    int clicks = inbox.drain();
+    boolean coalesce = coalesceClicks
+        || overloadPolicy != OverloadPolicy.GROW && pq.size() + clicks > eventCapacity;
+    if (coalesce && clicks > 0) {
+      // All these clicks are due in the same tick: handle them as one batch
+      ClickBatch batch = freeBatches.isEmpty() ? new ClickBatch(clicks) : freeBatches.pop();
+      for (int i = 0; i < clicks; i++)
+        batch.add(inbox.x(i), inbox.y(i));
+      pq.insert(obtainEvent(systemTime + UPDATE_RATE, null, null, EventType.CLICK_BATCH, batch));
+    } else
+      for (int i = 0; i < clicks; i++) {
+        Node n = grid[xy1D(inbox.x(i), inbox.y(i))];
+        createEvent(UPDATE_RATE, n, n, EventType.CLICK);
+      }
+
+    if (batchDispatch) {
+      dispatchBatches();
+      overloaded = pq.size() >= eventCapacity;
+      Tracing.endStep(trace, clicks, handledEvents - handled, pq.size());
+      noteFirstEvent();
+      return Math.min(pq.nextTime(), frameDue);
+    }
+
+    while (true) {
+      // Events due at the time of the frame go first, so the frame shows them
+      Event e = pq.next(Math.min(systemTime, frameDue));
+      if (e == null) {
+        if (frameDue > systemTime)
+          break;
+        redraw(systemTime);
+        continue;
+      }
+
       // Handle the event
+      Node targetNode = e.getTarget();
+      eventsSinceFrame++;
+      handledEvents++;
+      if (e.getType() == EventType.COLOR_RESET && isStale(e)) {
+        recycle(e);
+        continue;
+      }
+      dispatchTime = e.getTime();
+      dispatchSequence = e.getSequence();
+      if (e.getType() == EventType.CLICK_BATCH)
+        applyClicks(e.getClicks());
       else {
-        Event e = pq.delMin();
-        Node targetNode = e.getTarget();
+        if (e.getType() == EventType.CLICK)
+          feed.publishClick(systemTime, targetNode);
+        targetNode.handleEvent(e.getType(), e.getSource());
+      }
+      recycle(e);
+    }
+    overloaded = pq.size() >= eventCapacity;
+    Tracing.endStep(trace, clicks, handledEvents - handled, pq.size());
+    noteFirstEvent();
+    return Math.min(pq.nextTime(), frameDue);
+  }
+
+  // Whether a pen reset was overtaken by a later event colouring the pen again
+  private boolean isStale(Event reset) {
+    int i = xy1D(reset.getTarget().getCoord().x, reset.getTarget().getCoord().y);
+    return penTimes[i] > reset.getTime()
+        || penTimes[i] == reset.getTime() && penSequences[i] > reset.getSequence();
+  }
+
+  /**
+   * The batch dispatch loop of {@link #step(long)}. Takes all events that are due (up to the
+   * planned frame) off the queue in one go, and hands every run of consecutive events of the same
+   * type to one handler: pen resets are done in one call, and single clicks are coalesced as in
+   * {@link #applyClicks(ClickBatch)}. As runs keep the order of the queue, the outcome is the same
+   * as handling the events one by one. All due events are handled in one go, so they are taken in
+   * order of time regardless of the priority lanes, and no pen reset is ever stale.
+   */
+  private void dispatchBatches() {
+    while (true) {
+      long limit = Math.min(systemTime, frameDue);
+      int n = 0;
+      while (pq.nextTime() <= limit) {
+        if (n == dueEvents.length)
+          dueEvents = Arrays.copyOf(dueEvents, 2 * n);
+        dueEvents[n++] = pq.delMin();
+      }
+      if (n == 0) {
+        if (frameDue > systemTime)
+          return;
+        redraw(systemTime);
+        continue;
+      }
+      eventsSinceFrame += n;
+      handledEvents += n;
+
+      int start = 0;
+      while (start < n) {
+        EventType type = dueEvents[start].getType();
+        int end = start + 1;
+        while (end < n && dueEvents[end].getType() == type)
+          end++;
+        dispatchTime = dueEvents[end - 1].getTime();
+        dispatchSequence = dueEvents[end - 1].getSequence();
+        switch (type) {
+          case COLOR_RESET:
+            if (dueTargets.length < end - start)
+              dueTargets = new Node[Math.max(end - start, 2 * dueTargets.length)];
+            for (int i = start; i < end; i++)
+              dueTargets[i - start] = dueEvents[i].getTarget();
+            Node.resetPens(dueTargets, end - start);
+            Arrays.fill(dueTargets, 0, end - start, null);
+            break;
+          case CLICK:
+            dueClicks.clear();
+            for (int i = start; i < end; i++) {
+              Node t = dueEvents[i].getTarget();
+              dueClicks.add(t.getCoord().x, t.getCoord().y);
+            }
+            applyClicks(dueClicks);
+            break;
+          case CLICK_BATCH:
+            for (int i = start; i < end; i++)
+              applyClicks(dueEvents[i].getClicks());
+            break;
+          default:
+            break;
+        }
+        start = end;
+      }
+      for (int i = 0; i < n; i++) {
+        recycle(dueEvents[i]);
+        dueEvents[i] = null;
+      }
+    }
+  }
+
+  /**
+   * Whether {@link #step(long)} dispatches the due events in runs of the same type, each handled
+   * in one call, rather than one at a time (the default). Both give the same values and pen
+   * colours; batches cost less per event when many events are due at once.
+   * 
+   * @param batch true to dispatch in batches
+   */
+  public void setBatchDispatch(boolean batch) {
+    batchDispatch = batch;
+  }
+
+  /**
+   * Whether {@link #step(long)} handles due events in priority lanes (the default) rather than
+   * strictly in order of time. In lanes, clicks go ahead of due pen resets, so a backlog of pen
+   * resets does not delay the response to a click. A pen reset is passed over at most
+   * {@value #STARVATION_LIMIT} times in a row. Both give the same values, and the same pen colours
+   * at every frame.
+   * 
+   * @param lanes true to handle events in priority lanes
+   */
+  public void setPriorityLanes(boolean lanes) {
+    priorityLanes = lanes;
+    pq.setLane(EventType.CLICK, INPUT_LANE);
+    pq.setLane(EventType.CLICK_BATCH, INPUT_LANE);
+    pq.setLane(EventType.COLOR_RESET, lanes ? COSMETIC_LANE : INPUT_LANE);
+  }
+
+  /**
+   * Whether due events are handled in priority lanes
+   * 
+   * @return true if they are, see {@link #setPriorityLanes(boolean)}
+   */
+  public boolean isPriorityLanes() {
+    return priorityLanes;
+  }
+
+  /**
+   * Applies a batch of clicks in one pass. A click increments its row and its column, and the
+   * clicked node once, so a node ends up incremented by the clicks on its row, plus the clicks on
+   * its column, minus the clicks on the node itself. Only the rows and columns that were clicked
+   * are visited, each node once, whatever the number of clicks. The resulting values and pen
+   * colours are the same as when handling the clicks one by one.
+   * 
+   * @param batch The clicks to apply
+   */
+  private void applyClicks(ClickBatch batch) {
+    Object trace = Tracing.beginClick();
+    long changes = valueChanges;
+    for (int i = 0; i < batch.size(); i++) {
+      int x = batch.x(i);
+      int y = batch.y(i);
+      rowClicks[y]++;
+      columnClicks[x]++;
+      cellClicks[xy1D(x, y)]++;
+      feed.publishClick(systemTime, grid[xy1D(x, y)]);
+    }
 
-        if (targetNode != null) {
-          targetNode.handleEvent(e.getType(), e.getSource());
-        } else
-          redraw(systemTime);
+    // Clicked rows, including where they cross clicked columns
+    for (int y = 0; y < height; y++) {
+      if (rowClicks[y] == 0)
+        continue;
+      for (int x = 0; x < width; x++) {
+        int i = xy1D(x, y);
+        grid[i].increment(rowClicks[y] + columnClicks[x] - cellClicks[i]);
+        cellClicks[i] = 0;
       }
     }
+
+    // The rest of the clicked columns
+    for (int x = 0; x < width; x++) {
+      if (columnClicks[x] == 0)
+        continue;
+      for (int y = 0; y < height; y++)
+        if (rowClicks[y] == 0)
+          grid[xy1D(x, y)].increment(columnClicks[x]);
+      columnClicks[x] = 0;
+    }
+    for (int y = 0; y < height; y++)
+      rowClicks[y] = 0;
+    if (trace != null) {
+      boolean single = batch.size() == 1;
+      Tracing.endClick(trace, single ? batch.x(0) : -1, single ? batch.y(0) : -1, batch.size(),
+          valueChanges - changes);
+    }
+  }
+
+  // Remember when the first event or frame has been handled
+  private void noteFirstEvent() {
+    if (firstEventAt == 0 && (handledEvents > 0 || pacer.getFrames() > 0))
+      firstEventAt = System.nanoTime();
+  }
+
+  /**
+   * The time it took the constructor to build the grid, by the wall clock
+   * 
+   * @return long with the time in nanoseconds
+   */
+  public long getBuildTime() {
+    return builtAt - createdAt;
+  }
+
+  /**
+   * The time from the start of the constructor until the first event or frame was handled, by the
+   * wall clock. This is how long it takes before the board responds.
+   * 
+   * @return long with the time in nanoseconds, or -1 if nothing has been handled yet
+   */
+  public long getTimeToFirstEvent() {
+    long first = firstEventAt;
+    return first == 0 ? -1 : first - createdAt;
+  }
+
+  /**
+   * Whether the clicks received in the same step are applied as one batch (the default), or each
+   * as a CLICK event of its own. Both give the same values and pen colours.
+   * 
+   * @param coalesce true to apply the clicks of a step as one batch
+   */
+  public void setCoalesceClicks(boolean coalesce) {
+    coalesceClicks = coalesce;
+  }
+
+  /**
+   * Limits the number of pending events. Beyond the capacity, the policy decides what gives: by
+   * default nothing, and the queue keeps growing. Otherwise pen colour resets are the first to go,
+   * as they are only cosmetic: pens are then reset one frame after they changed, rather than after
+   * {@link #RESET_DELAY}. Clicks are always coalesced, so a click storm adds a single event per
+   * step. {@link OverloadPolicy#REJECT_INPUT} also refuses clicks while the queue is full, or when
+   * more clicks are waiting than the capacity; {@link #click(int, int)} then returns false.
+   * 
+   * @param capacity The number of pending events above which the policy applies
+   * @param policy The {@link OverloadPolicy}
+   */
+  public void setEventCapacity(int capacity, OverloadPolicy policy) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be positive");
+    eventCapacity = capacity;
+    overloadPolicy = policy;
+  }
+
+  /**
+   * The number of events handled so far
+   * 
+   * @return long with the number of events
+   */
+  public long getHandledEvents() {
+    return handledEvents;
+  }
+
+  /**
+   * The number of events waiting in the queue
+   * 
+   * @return int with the number of pending events
+   */
+  public int getPendingEvents() {
+    return pq.size();
+  }
+
+  /**
+   * The number of events shed because the queue was at capacity
+   * 
+   * @return long with the number of shed events
+   */
+  public long getShedEvents() {
+    return shedEvents;
+  }
+
+  /**
+   * The number of clicks refused because the queue was at capacity
+   * 
+   * @return long with the number of rejected clicks
+   */
+  public long getRejectedClicks() {
+    return rejectedClicks.get();
+  }
+
+  /**
+   * Clicks a node. May be called from any thread; the click is handled by the next step of the
+   * simulation.
+   * 
+   * @param x The x grid coordinate of the node. 0 <= x < gridSize
+   * @param y The y grid coordinate of the node. 0 <= y < gridSize
+   * @return true if the click has been accepted, false if it was refused because the grid is
+   *         overloaded (see {@link #setEventCapacity(int, OverloadPolicy)})
+   * @throws IllegalArgumentException if the coordinates are outside the grid
+   */
+  public boolean click(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height)
+      throw new IllegalArgumentException("[" + x + ", " + y + "] is outside the grid");
+    return accept(x, y);
+  }
+
+  // Add a click to the inbox, unless the overload policy refuses it
+  private boolean accept(int x, int y) {
+    if (overloadPolicy == OverloadPolicy.REJECT_INPUT
+        && (overloaded || inbox.size() >= eventCapacity)) {
+      rejectedClicks.incrementAndGet();
+      return false;
+    }
+    inbox.add(x, y);
+    return true;
+  }
+
+  /**
+   * Clicks the node at the given drawing location, if any. May be called from any thread.
+   * 
+   * @param x The x-coordinate on the JFrame, in user coordinates
+   * @param y The y-coordinate on the JFrame, in user coordinates
+   * @return true if the location is within a node, and the node has been clicked. false if not,
+   *         or if the click was refused because the grid is overloaded.
+   */
+  public boolean clickAt(double x, double y) {
+    Node n = nodeAt(x, y);
+    if (n == null)
+      return false;
+    return accept(n.getCoord().x, n.getCoord().y);
+  }
+
+  /**
+   * Finds the node drawn at a location. The nodes are laid out on a regular grid, so the only
+   * candidate is found by division, and then checked against the node's circle.
+   * 
+   * @param x The x-coordinate on the JFrame, in user coordinates
+   * @param y The y-coordinate on the JFrame, in user coordinates
+   * @return The Node containing the location, or null if there is none
+   */
+  private Node nodeAt(double x, double y) {
+    double gx = Math.floor((x - drawMin) / (2 * nodeRadius));
+    double gy = Math.floor((y - drawMin) / (2 * nodeRadius));
+    if (gx < 0 || gx >= width || gy < 0 || gy >= height)
+      return null;
+    Node n = grid[xy1D((int) gx, (int) gy)];
+    double dx = n.getLocation().getX() - x;
+    double dy = n.getLocation().getY() - y;
+    if (dx * dx + dy * dy <= nodeRadius * nodeRadius)
+      return n;
+    return null;
+  }
+
+  /**
+   * The value of a node
+   * 
+   * @param x The x grid coordinate of the node. 0 <= x < gridSize
+   * @param y The y grid coordinate of the node. 0 <= y < gridSize
+   * @return int with the current value
+   */
+  public int getValue(int x, int y) {
+    return grid[xy1D(x, y)].getValue();
+  }
+
+  /**
+   * A node of the grid
+   * 
+   * @param x The x grid coordinate of the node. 0 <= x < gridSize
+   * @param y The y grid coordinate of the node. 0 <= y < gridSize
+   * @return The Node
+   */
+  public Node getNode(int x, int y) {
+    return grid[xy1D(x, y)];
+  }
+
+  /**
+   * The layout in which the nodes are kept
+   * 
+   * @return The {@link Layout}
+   */
+  public Layout getLayout() {
+    return layout;
+  }
+
+  /**
+   * The width of the grid
+   * 
+   * @return int with the number of columns
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * The height of the grid
+   * 
+   * @return int with the number of rows
+   */
+  public int getHeight() {
+    return height;
   }
 
   /**
@@ -218,6 +1069,8 @@ public class Blinkenlights implements MouseListener {
    */
   @Override
   public void mousePressed(MouseEvent e) {
+    if (!SwingUtilities.isLeftMouseButton(e))
+      return; // The right button pans the viewport
     synchronized (this) {
       mouseX = Visual.userX(e.getX());
       mouseY = Visual.userY(e.getY());
@@ -225,21 +1078,12 @@ public class Blinkenlights implements MouseListener {
     }
 
     // Determine which node it is contained in
-    Point2D click = new Point2D.Double(mouseX, mouseY);
-
-    // FIXME: This checks all the nodes...horribly inefficient. Divide &
-    // conquer the grid instead
-    Node clickedNode = null;
-    for (Node n : grid) {
-      double distanceSq = n.getLocation().distanceSq(click);
-      if (distanceSq <= nodeRadius * nodeRadius)
-        clickedNode = n;
-    }
+    Node clickedNode = nodeAt(mouseX, mouseY);
 
     if (clickedNode != null) {
       System.out.printf("Node [%s, %s] has been clicked!%n", clickedNode.getCoord().getX(),
           clickedNode.getCoord().getY());
-      createEvent(UPDATE_RATE, clickedNode, clickedNode, EventType.CLICK);
+      click(clickedNode.getCoord().x, clickedNode.getCoord().y);
     }
   }
 
@@ -267,14 +1111,15 @@ public class Blinkenlights implements MouseListener {
    * Main class. Starts the program
    * 
    * @param args List of arguments. Expects a single integer argument indicating the number of
-   *        cells/nodes that make up a side of the (square) grid, with a maximum of 50. If none is
-   *        provided, or it cannot be parsed, the default value of 50 will be used.
+   *        cells/nodes that make up a side of the (square) grid. Large grids are shown as a
+   *        heatmap until zoomed in. If none is provided, or it cannot be parsed, the default value
+   *        of 50 will be used.
    */
   public static void main(String[] args) {
     int nodes = 50; // Default value
     if (args.length > 0) {
       try {
-        nodes = Math.min(nodes, Integer.parseInt(args[0]));
+        nodes = Integer.parseInt(args[0]);
       } catch (NumberFormatException nfe) {
         System.out.println(
             "Could not parse input: " + nfe.getMessage() + "; default value of 50 will be used");
@@ -0,0 +1,233 @@
+package blinkenlights;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BoardRuntime class. Hosts many independent boards in one JVM. Each board is a headless
+ * {@link Blinkenlights} instance, driven through {@link Blinkenlights#step(long)} instead of its own
+ * blocking {@link Blinkenlights#go()} loop.
+ * <p>
+ * Boards are spread over a small, fixed number of shards. Each shard is served by one worker thread,
+ * which keeps its boards in a priority queue ordered by the time of their next event, and only
+ * steps the boards that are due. A board without due events costs no thread and no CPU, so
+ * thousands of boards need only a handful of threads. A board is only ever stepped by the worker of
+ * its own shard, so the simulation itself needs no locking.
+ */
+public class BoardRuntime {
+
+  private final Shard[] shards;
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final AtomicInteger boards = new AtomicInteger();
+
+  /**
+   * Constructor. Starts the worker threads.
+   *
+   * @param threads The number of shards, and thus worker threads
+   */
+  public BoardRuntime(int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("at least one thread is needed");
+    shards = new Shard[threads];
+    for (int i = 0; i < threads; i++) {
+      shards[i] = new Shard(i);
+      shards[i].start();
+    }
+  }
+
+  /**
+   * Create a new board, and start running it
+   *
+   * @param gridSize The length/width of the (square) grid of the board
+   * @return The new Board
+   */
+  public Board addBoard(int gridSize) {
+    int id = nextId.getAndIncrement();
+    Board b = new Board(id, new Blinkenlights(gridSize, true), shards[id % shards.length]);
+    b.simulation.start(System.nanoTime());
+    boards.incrementAndGet();
+    b.shard.wake(b);
+    return b;
+  }
+
+  /**
+   * Stop running a board. Clicks on it are ignored from now on.
+   *
+   * @param b The board to remove
+   */
+  public void removeBoard(Board b) {
+    synchronized (b.shard) {
+      if (b.removed)
+        return;
+      b.removed = true;
+    }
+    boards.decrementAndGet();
+  }
+
+  /**
+   * The number of boards being run
+   *
+   * @return int with the number of boards
+   */
+  public int getBoardCount() {
+    return boards.get();
+  }
+
+  /**
+   * Stop all worker threads. Boards are no longer stepped afterwards.
+   */
+  public void shutdown() {
+    for (Shard s : shards)
+      s.halt();
+  }
+
+  /**
+   * A board hosted by the runtime
+   */
+  public static final class Board {
+    private final int id;
+    private final Blinkenlights simulation;
+    private final Shard shard;
+    private long due = Long.MAX_VALUE; // Time of the pending wake-up, guarded by the shard
+    private boolean removed = false; // Guarded by the shard
+
+    private Board(int id, Blinkenlights simulation, Shard shard) {
+      this.id = id;
+      this.simulation = simulation;
+      this.shard = shard;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * The simulation of this board. It is stepped by a worker thread, so observe it through its
+     * {@link Blinkenlights#getFeed() feed} rather than by reading its nodes.
+     *
+     * @return The {@link Blinkenlights} of this board
+     */
+    public Blinkenlights getSimulation() {
+      return simulation;
+    }
+
+    /**
+     * Click a node of this board. May be called from any thread.
+     *
+     * @param x The x grid coordinate of the node
+     * @param y The y grid coordinate of the node
+     * @return true if the click has been accepted, false if the board refused it or has been
+     *         removed
+     */
+    public boolean click(int x, int y) {
+      synchronized (shard) {
+        // A removed board is no longer stepped, so nothing would drain its clicks
+        if (removed || !simulation.click(x, y))
+          return false;
+        shard.wake(this);
+      }
+      return true;
+    }
+
+    public String toString() {
+      return "Board " + id;
+    }
+  }
+
+  // A planned step of a board. Outdated when the board has been rescheduled in the meantime.
+  private static final class Wakeup implements Comparable<Wakeup> {
+    private final long time;
+    private final Board board;
+
+    private Wakeup(long time, Board board) {
+      this.time = time;
+      this.board = board;
+    }
+
+    @Override
+    public int compareTo(Wakeup that) {
+      if (this.time < that.time)
+        return -1;
+      else if (this.time > that.time)
+        return +1;
+      else
+        return 0;
+    }
+  }
+
+  // A worker thread, and the boards it steps
+  private final class Shard extends Thread {
+    private final MinPQ<Wakeup> queue = new MinPQ<Wakeup>();
+    private boolean running = true;
+
+    private Shard(int index) {
+      super("board-shard-" + index);
+      setDaemon(true);
+    }
+
+    // Plan a step of the board as soon as possible
+    private synchronized void wake(Board b) {
+      schedule(b, System.nanoTime());
+    }
+
+    // Plan a step of the board at the given time, unless an earlier one is already planned
+    private void schedule(Board b, long time) {
+      if (b.removed || time >= b.due)
+        return;
+      b.due = time;
+      queue.insert(new Wakeup(time, b));
+      notify();
+    }
+
+    private synchronized void halt() {
+      running = false;
+      notify();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Board b = next();
+        if (b == null)
+          return;
+        long next = b.simulation.step(System.nanoTime());
+        synchronized (this) {
+          if (next != Long.MAX_VALUE)
+            schedule(b, next);
+        }
+      }
+    }
+
+    // Wait for the next due board, or return null when halted
+    private synchronized Board next() {
+      while (running) {
+        if (queue.isEmpty()) {
+          waitFor(0);
+          continue;
+        }
+        Wakeup w = queue.min();
+        long delay = w.time - System.nanoTime();
+        if (delay > 0) {
+          waitFor(delay);
+          continue;
+        }
+        queue.delMin();
+        if (w.board.removed || w.board.due != w.time)
+          continue; // Outdated
+        w.board.due = Long.MAX_VALUE;
+        return w.board;
+      }
+      return null;
+    }
+
+    private void waitFor(long nanos) {
+      try {
+        if (nanos == 0)
+          wait();
+        else
+          wait(nanos / 1000000, (int) (nanos % 1000000));
+      } catch (InterruptedException e) {
+        running = false;
+      }
+    }
+  }
+}
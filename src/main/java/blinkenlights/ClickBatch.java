@@ -0,0 +1,77 @@
+package blinkenlights;
+
+import java.util.Arrays;
+
+/**
+ * ClickBatch class. The clicks that are due in the same tick, carried by a single
+ * {@link Event.EventType#CLICK_BATCH} event. The grid applies them together, as per-row and
+ * per-column increments, instead of walking the row and column of every click separately.
+ */
+public class ClickBatch {
+
+  private int[] xs;
+  private int[] ys;
+  private int size = 0;
+
+  /**
+   * Constructor
+   *
+   * @param capacity The expected number of clicks
+   */
+  public ClickBatch(int capacity) {
+    xs = new int[Math.max(1, capacity)];
+    ys = new int[xs.length];
+  }
+
+  /**
+   * Add a click
+   *
+   * @param x The x grid coordinate of the clicked node
+   * @param y The y grid coordinate of the clicked node
+   */
+  public void add(int x, int y) {
+    if (size == xs.length) {
+      xs = Arrays.copyOf(xs, 2 * size);
+      ys = Arrays.copyOf(ys, 2 * size);
+    }
+    xs[size] = x;
+    ys[size] = y;
+    size++;
+  }
+
+  /**
+   * Remove all clicks, keeping the space for reuse
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * The number of clicks in this batch
+   *
+   * @return int with the number of clicks
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The x grid coordinate of a click
+   *
+   * @param i The index of the click. 0 <= i < size
+   * @return The x grid coordinate
+   */
+  public int x(int i) {
+    return xs[i];
+  }
+
+  /**
+   * The y grid coordinate of a click
+   *
+   * @param i The index of the click. 0 <= i < size
+   * @return The y grid coordinate
+   */
+  public int y(int i) {
+    return ys[i];
+  }
+}
@@ -0,0 +1,93 @@
+package blinkenlights;
+
+import java.util.Arrays;
+
+/**
+ * ClickQueue class. Hands clicks from any number of input threads (Swing, network, other boards) to
+ * the single thread running the simulation. Clicks are stored as grid coordinates in two
+ * <tt>int</tt> arrays, so adding a click does not allocate once the arrays have grown large enough.
+ * <p>
+ * The consumer calls {@link #drain()}, which swaps the filled arrays for its own (empty) pair, and
+ * then reads the drained clicks without holding the lock.
+ */
+public class ClickQueue {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Filled by the producers, under the lock
+  private int[] xs = new int[INITIAL_CAPACITY];
+  private int[] ys = new int[INITIAL_CAPACITY];
+  private int size = 0;
+
+  // Owned by the consumer
+  private int[] drainedXs = new int[INITIAL_CAPACITY];
+  private int[] drainedYs = new int[INITIAL_CAPACITY];
+
+  /**
+   * Add a click. May be called from any thread.
+   *
+   * @param x The x grid coordinate of the clicked node
+   * @param y The y grid coordinate of the clicked node
+   */
+  public synchronized void add(int x, int y) {
+    if (size == xs.length) {
+      xs = Arrays.copyOf(xs, 2 * size);
+      ys = Arrays.copyOf(ys, 2 * size);
+    }
+    xs[size] = x;
+    ys[size] = y;
+    size++;
+  }
+
+  /**
+   * The number of clicks waiting to be drained
+   *
+   * @return int with the number of clicks
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Take all clicks added so far. They can then be read with {@link #x(int)} and {@link #y(int)},
+   * until the next call to drain. Must only be called by the consumer thread.
+   *
+   * @return The number of drained clicks
+   */
+  public int drain() {
+    int n;
+    synchronized (this) {
+      n = size;
+      if (n == 0)
+        return 0;
+      int[] swap = xs;
+      xs = drainedXs;
+      drainedXs = swap;
+      swap = ys;
+      ys = drainedYs;
+      drainedYs = swap;
+      size = 0;
+    }
+    return n;
+  }
+
+  /**
+   * The x grid coordinate of a drained click
+   *
+   * @param i The index of the click. 0 <= i < the result of the last drain
+   * @return The x grid coordinate
+   */
+  public int x(int i) {
+    return drainedXs[i];
+  }
+
+  /**
+   * The y grid coordinate of a drained click
+   *
+   * @param i The index of the click. 0 <= i < the result of the last drain
+   * @return The y grid coordinate
+   */
+  public int y(int i) {
+    return drainedYs[i];
+  }
+}
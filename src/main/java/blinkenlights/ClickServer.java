@@ -0,0 +1,290 @@
+package blinkenlights;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * ClickServer class. Receives clicks over the network, and feeds them into a (usually headless)
+ * {@link Blinkenlights} grid. A single thread serves any number of TCP connections and a UDP
+ * socket, using a {@link Selector}.
+ * <p>
+ * Clicks are sent in batches. A batch is an unsigned 16-bit count, followed by that many records of
+ * {@value #RECORD_SIZE} bytes each: a kind byte, followed by either two <tt>int</tt> grid
+ * coordinates ({@link #GRID}) or two <tt>float</tt> drawing coordinates ({@link #USER}). All numbers
+ * are big-endian. Over TCP, batches simply follow each other; over UDP, every datagram holds one
+ * batch. Clicks outside the grid, or refused by an overloaded grid, are counted, and otherwise
+ * ignored.
+ * <p>
+ * Every connection has one receive buffer, allocated when it is accepted, and records are decoded
+ * straight from that buffer, so receiving clicks does not allocate.
+ */
+public class ClickServer implements Runnable, Closeable {
+
+  public static final byte GRID = 0; // Record with grid coordinates
+  public static final byte USER = 1; // Record with drawing (user) coordinates
+  public static final int RECORD_SIZE = 9;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Blinkenlights board;
+  private final Selector selector;
+  private final ServerSocketChannel tcp; // null if not listening on TCP
+  private final DatagramChannel udp; // null if not listening on UDP
+  private final ByteBuffer datagram = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private volatile boolean running = true;
+
+  // Only written by the server thread
+  private volatile long clicks = 0;
+  private volatile long rejected = 0;
+
+  // Per connection state, attached to its SelectionKey
+  private static final class Connection {
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int remaining = 0; // Records left in the current batch
+  }
+
+  /**
+   * Constructor. Opens the sockets; call {@link #run()} to start serving.
+   *
+   * @param board The grid to feed the clicks into
+   * @param tcpAddress The address to accept TCP connections on, or null for no TCP
+   * @param udpAddress The address to receive UDP datagrams on, or null for no UDP
+   * @throws IOException if a socket cannot be opened
+   */
+  public ClickServer(Blinkenlights board, InetSocketAddress tcpAddress,
+      InetSocketAddress udpAddress) throws IOException {
+    this.board = board;
+    selector = Selector.open();
+    if (tcpAddress != null) {
+      tcp = ServerSocketChannel.open();
+      tcp.configureBlocking(false);
+      tcp.socket().bind(tcpAddress);
+      tcp.register(selector, SelectionKey.OP_ACCEPT);
+    } else
+      tcp = null;
+    if (udpAddress != null) {
+      udp = DatagramChannel.open();
+      udp.configureBlocking(false);
+      udp.socket().bind(udpAddress);
+      udp.register(selector, SelectionKey.OP_READ);
+    } else
+      udp = null;
+  }
+
+  /**
+   * The local TCP port
+   *
+   * @return The port number, or -1 if not listening on TCP
+   */
+  public int getTcpPort() {
+    return tcp == null ? -1 : tcp.socket().getLocalPort();
+  }
+
+  /**
+   * The local UDP port
+   *
+   * @return The port number, or -1 if not listening on UDP
+   */
+  public int getUdpPort() {
+    return udp == null ? -1 : udp.socket().getLocalPort();
+  }
+
+  /**
+   * The number of clicks fed into the grid
+   *
+   * @return long with the number of clicks
+   */
+  public long getClicks() {
+    return clicks;
+  }
+
+  /**
+   * The number of records that were not a click on the grid, or that the grid refused
+   *
+   * @return long with the number of rejected records
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * Serve until closed
+   */
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid())
+            continue;
+          if (key.isAcceptable())
+            accept();
+          else if (key.channel() == udp)
+            receive();
+          else
+            read(key);
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Click server stopped: " + e.getMessage());
+    } finally {
+      closeChannels();
+    }
+  }
+
+  /**
+   * Stop serving, and close all sockets
+   */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private void accept() throws IOException {
+    SocketChannel c = tcp.accept();
+    if (c == null)
+      return;
+    c.configureBlocking(false);
+    c.register(selector, SelectionKey.OP_READ, new Connection());
+  }
+
+  private void read(SelectionKey key) {
+    SocketChannel c = (SocketChannel) key.channel();
+    Connection conn = (Connection) key.attachment();
+    try {
+      if (c.read(conn.buffer) < 0) {
+        key.cancel();
+        c.close();
+        return;
+      }
+    } catch (IOException e) {
+      key.cancel();
+      try {
+        c.close();
+      } catch (IOException ignored) {
+        // Already broken
+      }
+      return;
+    }
+    conn.buffer.flip();
+    conn.remaining = decode(conn.buffer, conn.remaining);
+    conn.buffer.compact();
+  }
+
+  private void receive() throws IOException {
+    datagram.clear();
+    while (udp.receive(datagram) != null) {
+      datagram.flip();
+      decode(datagram, 0);
+      datagram.clear();
+    }
+  }
+
+  /**
+   * Decode all complete records in the buffer, leaving any partial record in place
+   *
+   * @param b The buffer, in read mode
+   * @param remaining The number of records left in the current batch, or 0 if at the start of a
+   *        batch
+   * @return The number of records left in the current batch
+   */
+  private int decode(ByteBuffer b, int remaining) {
+    while (true) {
+      if (remaining == 0) {
+        if (b.remaining() < 2)
+          return 0;
+        remaining = b.getShort() & 0xffff;
+        continue;
+      }
+      if (b.remaining() < RECORD_SIZE)
+        return remaining;
+      byte kind = b.get();
+      boolean accepted;
+      if (kind == GRID)
+        accepted = clickGrid(b.getInt(), b.getInt());
+      else if (kind == USER)
+        accepted = board.clickAt(b.getFloat(), b.getFloat());
+      else {
+        b.position(b.position() + RECORD_SIZE - 1);
+        accepted = false;
+      }
+      if (accepted)
+        clicks++;
+      else
+        rejected++;
+      remaining--;
+    }
+  }
+
+  private boolean clickGrid(int x, int y) {
+    if (x < 0 || x >= board.getWidth() || y < 0 || y >= board.getHeight())
+      return false;
+    return board.click(x, y);
+  }
+
+  private void closeChannels() {
+    for (SelectionKey key : selector.keys()) {
+      try {
+        key.channel().close();
+      } catch (IOException e) {
+        // Closing anyway
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+  }
+
+  /**
+   * Runs a headless grid, fed by a click server on both TCP and UDP. The state of the grid is
+   * streamed to viewers by a {@link DeltaServer} on the next port.
+   *
+   * @param args Optionally the port to listen on (default 7777), and the size of the grid (default
+   *        50)
+   */
+  public static void main(String[] args) throws IOException {
+    int port = 7777;
+    int nodes = 50;
+    try {
+      if (args.length > 0)
+        port = Integer.parseInt(args[0]);
+      if (args.length > 1)
+        nodes = Integer.parseInt(args[1]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("Could not parse input: " + nfe.getMessage() + "; using port " + port
+          + " and grid size " + nodes);
+    }
+
+    Blinkenlights b = new Blinkenlights(nodes, true);
+    b.setBatchDispatch(true);
+    ClickServer server =
+        new ClickServer(b, new InetSocketAddress(port), new InetSocketAddress(port));
+    Thread t = new Thread(server, "click-server");
+    t.setDaemon(true);
+    t.start();
+    System.out.printf("Listening for clicks on port %d (TCP and UDP), grid [%d x %d]%n", port,
+        nodes, nodes);
+
+    DeltaServer deltas = new DeltaServer(new InetSocketAddress(port + 1), 100, 50);
+    b.addFrameListener(deltas);
+    t = new Thread(deltas, "delta-server");
+    t.setDaemon(true);
+    t.start();
+    System.out.printf("Streaming grid state on port %d (TCP)%n", port + 1);
+    b.go();
+  }
+}
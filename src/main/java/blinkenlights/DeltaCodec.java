@@ -0,0 +1,174 @@
+package blinkenlights;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * DeltaCodec class. Encodes the state of a grid as a stream of compact binary frames. A keyframe
+ * holds every node; a delta frame only holds the nodes whose value or pen colour changed since the
+ * previous frame. Every so many frames a keyframe is sent, so a viewer can (re)start from it.
+ * <p>
+ * Frame layout (big-endian): the type ({@link #KEYFRAME} or {@link #DELTA}), the frame number
+ * (<tt>int</tt>), the width and height (<tt>int</tt>) and the number of entries (<tt>int</tt>).
+ * Each entry is the distance to the previous entry's one-dimensional index (the first entry counts
+ * from -1), the value, and the pen (one byte: {@link #PEN_BLACK}, {@link #PEN_YELLOW} or
+ * {@link #PEN_GREEN}). Distances and values are unsigned variable length integers of 7 bits per
+ * byte, so a typical entry takes three bytes.
+ */
+public class DeltaCodec {
+
+  public static final byte KEYFRAME = 'K';
+  public static final byte DELTA = 'D';
+  public static final byte PEN_BLACK = 0;
+  public static final byte PEN_YELLOW = 1;
+  public static final byte PEN_GREEN = 2;
+
+  private static final int HEADER_SIZE = 17;
+  private static final int MAX_ENTRY_SIZE = 11; // Two 5-byte varints and the pen
+
+  private final int keyframeInterval;
+  private int frame = 0;
+  private boolean keyframeRequested = true;
+  private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+  /**
+   * Constructor
+   *
+   * @param keyframeInterval The number of frames from one keyframe to the next
+   */
+  public DeltaCodec(int keyframeInterval) {
+    if (keyframeInterval < 1)
+      throw new IllegalArgumentException("keyframe interval must be positive");
+    this.keyframeInterval = keyframeInterval;
+  }
+
+  /**
+   * Make the next frame a keyframe, for example because a viewer has just connected
+   */
+  public void requestKeyframe() {
+    keyframeRequested = true;
+  }
+
+  /**
+   * Encode the next frame
+   *
+   * @param grid The grid to encode
+   * @param changed The nodes changed since the previous frame, by one-dimensional index
+   * @return The frame, between position and limit. Only valid until the next call.
+   */
+  public ByteBuffer encode(Blinkenlights grid, BitSet changed) {
+    int width = grid.getWidth();
+    int height = grid.getHeight();
+    boolean keyframe = keyframeRequested || frame % keyframeInterval == 0;
+    keyframeRequested = false;
+    int count = keyframe ? width * height : changed.cardinality();
+    ensureCapacity(HEADER_SIZE + (long) count * MAX_ENTRY_SIZE);
+
+    buffer.clear();
+    buffer.put(keyframe ? KEYFRAME : DELTA);
+    buffer.putInt(frame++);
+    buffer.putInt(width);
+    buffer.putInt(height);
+    buffer.putInt(count);
+    int previous = -1;
+    if (keyframe) {
+      for (int i = 0; i < count; i++)
+        previous = putEntry(grid, width, i, previous);
+    } else {
+      for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1))
+        previous = putEntry(grid, width, i, previous);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private int putEntry(Blinkenlights grid, int width, int index, int previous) {
+    Node n = grid.getNode(index % width, index / width);
+    putVarint(index - previous - 1);
+    putVarint(n.getValue());
+    buffer.put(pen(n.getPenColour()));
+    return index;
+  }
+
+  /**
+   * Is a frame a keyframe?
+   *
+   * @param frame The frame, at its start
+   * @return true for a keyframe
+   */
+  public static boolean isKeyframe(ByteBuffer frame) {
+    return frame.get(frame.position()) == KEYFRAME;
+  }
+
+  /**
+   * Apply a frame to a copy of the grid state
+   *
+   * @param frame The frame, at its start. Its position is moved past the frame.
+   * @param values The values of the nodes, by one-dimensional index
+   * @param pens The pens of the nodes, by one-dimensional index
+   * @return The frame number
+   * @throws IllegalArgumentException if the frame does not match the size of the arrays
+   */
+  public static int decode(ByteBuffer frame, int[] values, byte[] pens) {
+    byte type = frame.get();
+    if (type != KEYFRAME && type != DELTA)
+      throw new IllegalArgumentException("Not a frame: " + type);
+    int number = frame.getInt();
+    int width = frame.getInt();
+    int height = frame.getInt();
+    if ((long) width * height != values.length || values.length != pens.length)
+      throw new IllegalArgumentException("Frame of size [" + width + " x " + height
+          + "] does not match " + values.length + " nodes");
+    int count = frame.getInt();
+    int index = -1;
+    for (int i = 0; i < count; i++) {
+      index += getVarint(frame) + 1;
+      values[index] = getVarint(frame);
+      pens[index] = frame.get();
+    }
+    return number;
+  }
+
+  /**
+   * The pen byte of a colour
+   *
+   * @param c The pen colour of a Node
+   * @return {@link #PEN_YELLOW}, {@link #PEN_GREEN}, or {@link #PEN_BLACK} for any other colour
+   */
+  public static byte pen(Color c) {
+    if (Color.YELLOW.equals(c))
+      return PEN_YELLOW;
+    if (Color.GREEN.equals(c))
+      return PEN_GREEN;
+    return PEN_BLACK;
+  }
+
+  private void putVarint(int v) {
+    while ((v & ~0x7f) != 0) {
+      buffer.put((byte) ((v & 0x7f) | 0x80));
+      v >>>= 7;
+    }
+    buffer.put((byte) v);
+  }
+
+  private static int getVarint(ByteBuffer b) {
+    int v = 0;
+    int shift = 0;
+    byte in;
+    do {
+      in = b.get();
+      v |= (in & 0x7f) << shift;
+      shift += 7;
+    } while ((in & 0x80) != 0);
+    return v;
+  }
+
+  private void ensureCapacity(long size) {
+    if (size > Integer.MAX_VALUE)
+      throw new IllegalStateException("Frame too large: " + size + " bytes");
+    if (buffer.capacity() < size)
+      buffer = ByteBuffer
+          .allocate((int) Math.min(Integer.MAX_VALUE, Math.max(size, 2L * buffer.capacity())));
+  }
+}
@@ -0,0 +1,260 @@
+package blinkenlights;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * DeltaServer class. Streams the state of a grid to any number of remote viewers over TCP, as
+ * frames encoded by a {@link DeltaCodec}. Each frame is sent as its length (<tt>int</tt>) followed
+ * by the frame itself.
+ * <p>
+ * Frames are encoded once, on the simulation thread, and shared between all viewers. A single
+ * thread writes them out with a {@link Selector}. Every viewer has a bounded queue of frames: a
+ * viewer that falls behind has its queue emptied, and skips all delta frames until the next
+ * keyframe, instead of buffering without limit. A new viewer also waits for a keyframe, and asks
+ * for one to be sent with the next frame, which the grid is asked to draw straight away. A viewer
+ * that fell behind asks for a keyframe the same way, once it has taken the frame it was in the
+ * middle of, so a viewer that stays stalled does not turn every frame into a keyframe.
+ */
+public class DeltaServer implements FrameListener, Runnable, Closeable {
+
+  private final DeltaCodec codec;
+  private final int queueLimit;
+  private final Selector selector;
+  private final ServerSocketChannel server;
+  private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+  private volatile boolean running = true;
+  private volatile boolean keyframeNeeded = false;
+  private volatile Blinkenlights grid; // The grid of the last frame, to ask for frames
+
+  // A connected viewer. The queue is guarded by the viewer itself.
+  private static final class Viewer {
+    private final SocketChannel channel;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private ByteBuffer current; // Frame being written, only used by the server thread
+    private boolean awaitingKeyframe = true;
+    private boolean dropped = false; // Fell behind, and has not asked for a keyframe yet
+    private long skipped = 0;
+
+    private Viewer(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * Constructor. Opens the socket; call {@link #run()} to start serving, and add the server as a
+   * {@link FrameListener} to the grid.
+   *
+   * @param address The address to accept viewers on
+   * @param keyframeInterval The number of frames from one keyframe to the next
+   * @param queueLimit The maximum number of frames queued for a viewer
+   * @throws IOException if the socket cannot be opened
+   */
+  public DeltaServer(InetSocketAddress address, int keyframeInterval, int queueLimit)
+      throws IOException {
+    if (queueLimit < 1)
+      throw new IllegalArgumentException("queue limit must be positive");
+    codec = new DeltaCodec(keyframeInterval);
+    this.queueLimit = queueLimit;
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.configureBlocking(false);
+    server.socket().bind(address);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * The local port
+   *
+   * @return The port number viewers connect to
+   */
+  public int getPort() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * The number of connected viewers
+   *
+   * @return int with the number of viewers
+   */
+  public int getViewerCount() {
+    return viewers.size();
+  }
+
+  /**
+   * The total number of frames skipped by viewers that could not keep up
+   *
+   * @return long with the number of skipped frames
+   */
+  public long getSkipped() {
+    long total = 0;
+    for (Viewer v : viewers)
+      synchronized (v) {
+        total += v.skipped;
+      }
+    return total;
+  }
+
+  /**
+   * Encode the frame, and queue it for every viewer
+   */
+  @Override
+  public void frame(Blinkenlights grid, long time) {
+    this.grid = grid;
+    if (viewers.isEmpty())
+      return;
+    if (keyframeNeeded) {
+      keyframeNeeded = false;
+      codec.requestKeyframe();
+    }
+    ByteBuffer encoded = codec.encode(grid, grid.getChanged());
+    boolean keyframe = DeltaCodec.isKeyframe(encoded);
+    ByteBuffer message = ByteBuffer.allocate(4 + encoded.remaining());
+    message.putInt(encoded.remaining()).put(encoded);
+    message.flip();
+
+    for (Viewer v : viewers) {
+      synchronized (v) {
+        if (keyframe) {
+          v.skipped += v.queue.size();
+          v.queue.clear();
+          v.awaitingKeyframe = false;
+        } else if (v.awaitingKeyframe) {
+          v.skipped++;
+          continue;
+        } else if (v.queue.size() >= queueLimit) {
+          // Too slow: drop everything, and start again from the next keyframe
+          v.skipped += v.queue.size() + 1;
+          v.queue.clear();
+          v.awaitingKeyframe = true;
+          v.dropped = true;
+          continue;
+        }
+        v.queue.add(message.duplicate());
+      }
+    }
+    selector.wakeup();
+  }
+
+  /**
+   * Serve until closed
+   */
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        // Ask to write to every viewer with pending frames
+        for (SelectionKey key : selector.keys()) {
+          if (key.isValid() && key.attachment() != null) {
+            Viewer v = (Viewer) key.attachment();
+            boolean pending;
+            boolean caughtUp = false;
+            synchronized (v) {
+              pending = v.current != null || !v.queue.isEmpty();
+              if (v.dropped && v.current == null) {
+                v.dropped = false;
+                caughtUp = true;
+              }
+            }
+            if (caughtUp)
+              requestKeyframe();
+            key.interestOps(pending ? SelectionKey.OP_WRITE : 0);
+          }
+        }
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid())
+            continue;
+          if (key.isAcceptable())
+            accept();
+          else if (key.isWritable())
+            write(key);
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Delta server stopped: " + e.getMessage());
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        try {
+          key.channel().close();
+        } catch (IOException e) {
+          // Closing anyway
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // Closing anyway
+      }
+    }
+  }
+
+  /**
+   * Stop serving, and disconnect all viewers
+   */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private void accept() throws IOException {
+    SocketChannel c = server.accept();
+    if (c == null)
+      return;
+    c.configureBlocking(false);
+    Viewer v = new Viewer(c);
+    c.register(selector, 0, v);
+    viewers.add(v);
+    requestKeyframe();
+  }
+
+  // Make the next frame a keyframe. A grid only draws frames when it changes, so ask for one now.
+  private void requestKeyframe() {
+    keyframeNeeded = true;
+    Blinkenlights g = grid;
+    if (g != null)
+      g.requestFrame();
+  }
+
+  private void write(SelectionKey key) {
+    Viewer v = (Viewer) key.attachment();
+    try {
+      while (true) {
+        if (v.current == null) {
+          synchronized (v) {
+            v.current = v.queue.poll();
+          }
+          if (v.current == null)
+            return;
+        }
+        v.channel.write(v.current);
+        if (v.current.hasRemaining())
+          return; // Socket buffer full; continue when writable again
+        v.current = null;
+      }
+    } catch (IOException e) {
+      // Viewer went away
+      viewers.remove(v);
+      key.cancel();
+      try {
+        v.channel.close();
+      } catch (IOException ignored) {
+        // Closing anyway
+      }
+    }
+  }
+}
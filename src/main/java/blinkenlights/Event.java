@@ -9,13 +9,16 @@ package blinkenlights;
 public class Event implements Comparable<Event> {
 
   public static enum EventType {
-    REDRAW, CLICK, COLOR_RESET
+    REDRAW, CLICK, COLOR_RESET, CLICK_BATCH
   }
 
-  private final long time; // time that event is scheduled to occur
-  private final Node target; // Node that event is for
-  private final Node src; // Node that event is from (if applicable)
+  // Not final, so a handled event can be reused by the grid rather than allocating a new one
+  private long time; // time that event is scheduled to occur
+  private Node target; // Node that event is for
+  private Node src; // Node that event is from (if applicable)
   private EventType type; // Type of event
+  private ClickBatch clicks; // Clicks of a CLICK_BATCH event, otherwise null
+  private long sequence; // Orders events occurring at the same time
 
 
   /**
@@ -26,10 +29,58 @@ public class Event implements Comparable<Event> {
    * 
    */
   public Event(long t, Node target, Node source, EventType type) {
+    this(t, target, source, type, 0);
+  }
+
+  /**
+   * Create a new event to occur. Events occurring at the same time are ordered by their sequence
+   * number, so giving events increasing numbers handles them in the order they were created.
+   * 
+   * @param t Time at which the event occurs
+   * @param sequence The sequence number of the event
+   */
+  public Event(long t, Node target, Node source, EventType type, long sequence) {
     this.time = t;
     this.target = target;
     this.src = source;
     this.type = type;
+    this.clicks = null;
+    this.sequence = sequence;
+  }
+
+  /**
+   * Create a new event applying a batch of clicks
+   * 
+   * @param t Time at which the event occurs
+   * @param clicks The clicks to apply
+   * @param sequence The sequence number of the event
+   */
+  public Event(long t, ClickBatch clicks, long sequence) {
+    this.time = t;
+    this.target = null;
+    this.src = null;
+    this.type = EventType.CLICK_BATCH;
+    this.clicks = clicks;
+    this.sequence = sequence;
+  }
+
+  /**
+   * Reuse this event for another occurrence. Only for events that are no longer in a queue.
+   * 
+   * @param t Time at which the event occurs
+   * @param target The Node that event is for, or null for a CLICK_BATCH
+   * @param source The Node that event is from, or null for a CLICK_BATCH
+   * @param type The type of event
+   * @param clicks The clicks of a CLICK_BATCH event, otherwise null
+   * @param sequence The sequence number of the event
+   */
+  void set(long t, Node target, Node source, EventType type, ClickBatch clicks, long sequence) {
+    this.time = t;
+    this.target = target;
+    this.src = source;
+    this.type = type;
+    this.clicks = clicks;
+    this.sequence = sequence;
   }
 
   public Node getTarget() {
@@ -40,17 +91,25 @@ public class Event implements Comparable<Event> {
     return this.src;
   }
 
+  public ClickBatch getClicks() {
+    return this.clicks;
+  }
+
   public EventType getType() {
     return this.type;
   }
 
   @Override
-  // compare times when two events will occur
+  // compare times when two events will occur, and then their sequence numbers
   public int compareTo(Event that) {
     if (this.time < that.time)
       return -1;
     else if (this.time > that.time)
       return +1;
+    else if (this.sequence < that.sequence)
+      return -1;
+    else if (this.sequence > that.sequence)
+      return +1;
     else
       return 0;
   }
@@ -58,4 +117,8 @@ public class Event implements Comparable<Event> {
   public long getTime() {
     return this.time;
   }
+
+  public long getSequence() {
+    return this.sequence;
+  }
 }
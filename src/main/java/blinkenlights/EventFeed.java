@@ -0,0 +1,296 @@
+package blinkenlights;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * EventFeed class. Publishes the clicks and resets that happen in the simulation to any number of
+ * subscribers. Each subscriber has its own bounded buffer, and an overflow policy that decides what
+ * happens when the subscriber cannot keep up: block the simulation (back-pressure), or drop either
+ * the newest or the oldest record.
+ * <p>
+ * Publishing is cheap when nobody is subscribed: no record is created at all.
+ */
+public class EventFeed {
+
+  public static enum Kind {
+    CLICK, RESET
+  }
+
+  public static enum OverflowPolicy {
+    BLOCK, // Block the publisher until there is room
+    DROP_NEWEST, // Discard the record being published
+    DROP_OLDEST // Discard the oldest buffered record
+  }
+
+  private static final Subscription[] NONE = new Subscription[0];
+
+  // Copy-on-write array, so publishing never needs a lock on the feed itself
+  private volatile Subscription[] subscriptions = NONE;
+
+  /**
+   * Subscribe to this feed
+   *
+   * @param capacity The maximum number of records buffered for this subscriber
+   * @param policy What to do when the buffer is full
+   * @return The new Subscription
+   */
+  public Subscription subscribe(int capacity, OverflowPolicy policy) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be positive");
+    if (policy == null)
+      throw new IllegalArgumentException("policy must not be null");
+    Subscription s = new Subscription(capacity, policy);
+    synchronized (this) {
+      Subscription[] copy = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+      copy[copy.length - 1] = s;
+      subscriptions = copy;
+    }
+    return s;
+  }
+
+  // Remove a subscription from the feed
+  private synchronized void unsubscribe(Subscription s) {
+    Subscription[] current = subscriptions;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == s) {
+        Subscription[] copy = new Subscription[current.length - 1];
+        System.arraycopy(current, 0, copy, 0, i);
+        System.arraycopy(current, i + 1, copy, i, current.length - i - 1);
+        subscriptions = copy;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Does this feed have any subscribers?
+   *
+   * @return true if at least one subscription is active
+   */
+  public boolean hasSubscribers() {
+    return subscriptions.length > 0;
+  }
+
+  /**
+   * Publish a click on a Node
+   *
+   * @param time The simulation time of the click
+   * @param n The Node that has been clicked
+   */
+  public void publishClick(long time, Node n) {
+    if (subscriptions.length == 0)
+      return;
+    publish(new Record(Kind.CLICK, time, n.getCoord().x, n.getCoord().y, n.getCoord().x,
+        n.getCoord().y));
+  }
+
+  /**
+   * Publish the reset of a pair of Nodes
+   *
+   * @param time The simulation time of the reset
+   * @param n The Node with the value of four
+   * @param other The neighbouring Node with the value of two
+   */
+  public void publishReset(long time, Node n, Node other) {
+    if (subscriptions.length == 0)
+      return;
+    publish(new Record(Kind.RESET, time, n.getCoord().x, n.getCoord().y, other.getCoord().x,
+        other.getCoord().y));
+  }
+
+  /**
+   * Publish a record to all subscribers
+   *
+   * @param r The record to publish
+   */
+  public void publish(Record r) {
+    for (Subscription s : subscriptions)
+      s.offer(r);
+  }
+
+  /**
+   * A single click or reset. Records are immutable, and shared between all subscribers. For a click
+   * the other coordinates are the same as the clicked coordinates.
+   */
+  public static final class Record {
+    private final Kind kind;
+    private final long time;
+    private final int x;
+    private final int y;
+    private final int otherX;
+    private final int otherY;
+
+    public Record(Kind kind, long time, int x, int y, int otherX, int otherY) {
+      this.kind = kind;
+      this.time = time;
+      this.x = x;
+      this.y = y;
+      this.otherX = otherX;
+      this.otherY = otherY;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    public long getTime() {
+      return time;
+    }
+
+    public int getX() {
+      return x;
+    }
+
+    public int getY() {
+      return y;
+    }
+
+    public int getOtherX() {
+      return otherX;
+    }
+
+    public int getOtherY() {
+      return otherY;
+    }
+
+    public String toString() {
+      if (kind == Kind.CLICK)
+        return kind + " [" + x + "," + y + "] @" + time;
+      return kind + " [" + x + "," + y + "] [" + otherX + "," + otherY + "] @" + time;
+    }
+  }
+
+  /**
+   * A subscription to the feed, holding a bounded ring buffer of records. Records are consumed with
+   * {@link #poll()}, {@link #take()} or {@link #drainTo(List, int)}, from any thread.
+   */
+  public final class Subscription {
+    private final Record[] ring;
+    private final OverflowPolicy policy;
+    private int head = 0; // index of the oldest record
+    private int count = 0; // number of buffered records
+    private long dropped = 0; // number of records lost to the overflow policy
+    private boolean cancelled = false;
+
+    private Subscription(int capacity, OverflowPolicy policy) {
+      this.ring = new Record[capacity];
+      this.policy = policy;
+    }
+
+    // Called by the publisher
+    private synchronized void offer(Record r) {
+      if (cancelled)
+        return;
+      if (count == ring.length) {
+        switch (policy) {
+          case BLOCK:
+            while (count == ring.length && !cancelled) {
+              try {
+                wait();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped++;
+                return;
+              }
+            }
+            if (cancelled)
+              return;
+            break;
+          case DROP_OLDEST:
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            dropped++;
+            break;
+          case DROP_NEWEST:
+          default:
+            dropped++;
+            return;
+        }
+      }
+      ring[(head + count) % ring.length] = r;
+      count++;
+      notifyAll();
+    }
+
+    /**
+     * Retrieve the oldest record, if any
+     *
+     * @return The oldest record, or null if none is buffered
+     */
+    public synchronized Record poll() {
+      if (count == 0)
+        return null;
+      return remove();
+    }
+
+    /**
+     * Retrieve the oldest record, waiting for one to arrive if needed
+     *
+     * @return The oldest record, or null if the subscription has been cancelled
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Record take() throws InterruptedException {
+      while (count == 0 && !cancelled)
+        wait();
+      if (count == 0)
+        return null;
+      return remove();
+    }
+
+    /**
+     * Move all buffered records (up to a maximum) to the given list, in order
+     *
+     * @param list The list to add the records to
+     * @param max The maximum number of records to move
+     * @return The number of records moved
+     */
+    public synchronized int drainTo(List<Record> list, int max) {
+      int n = 0;
+      while (count > 0 && n < max) {
+        list.add(remove());
+        n++;
+      }
+      return n;
+    }
+
+    private Record remove() {
+      Record r = ring[head];
+      ring[head] = null;
+      head = (head + 1) % ring.length;
+      count--;
+      notifyAll(); // wake a blocked publisher
+      return r;
+    }
+
+    /**
+     * The number of records currently buffered
+     *
+     * @return int with the number of records
+     */
+    public synchronized int size() {
+      return count;
+    }
+
+    /**
+     * The number of records lost because this subscriber's buffer was full
+     *
+     * @return long with the number of dropped records
+     */
+    public synchronized long getDropped() {
+      return dropped;
+    }
+
+    /**
+     * Stop receiving records. A blocked publisher or consumer is released.
+     */
+    public void cancel() {
+      unsubscribe(this);
+      synchronized (this) {
+        cancelled = true;
+        notifyAll();
+      }
+    }
+  }
+}
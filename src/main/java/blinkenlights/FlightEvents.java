@@ -0,0 +1,207 @@
+package blinkenlights;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the simulation. Only loaded through {@link Tracing}, and only
+ * when the JVM has JFR, so the rest of the code runs without it. Compiling it needs the
+ * <tt>jdk.jfr</tt> module, so building the project needs JDK 11 or later, although the classes
+ * still target Java 7.
+ * <p>
+ * Every begin method returns null, without allocating, unless a recording has enabled its event.
+ */
+final class FlightEvents {
+
+  private FlightEvents() {}
+
+  @Name("blinkenlights.Step")
+  @Label("Step")
+  @Category("Blinkenlights")
+  @Description("A step of the simulation loop that handled clicks or events")
+  static final class StepEvent extends Event {
+    @Label("Clicks")
+    @Description("Clicks taken from the inbox")
+    int clicks;
+
+    @Label("Events")
+    @Description("Events handled")
+    long events;
+
+    @Label("Pending")
+    @Description("Events left in the queue")
+    int pending;
+  }
+
+  @Name("blinkenlights.Click")
+  @Label("Click")
+  @Category("Blinkenlights")
+  @Description("The propagation of a click, or of a batch of clicks, through the grid")
+  static final class ClickEvent extends Event {
+    @Label("Origin X")
+    @Description("The clicked column, or -1 for a batch")
+    int originX;
+
+    @Label("Origin Y")
+    @Description("The clicked row, or -1 for a batch")
+    int originY;
+
+    @Label("Clicks")
+    int clicks;
+
+    @Label("Fan-out")
+    @Description("Nodes whose value changed")
+    long fanOut;
+  }
+
+  @Name("blinkenlights.Reset")
+  @Label("Reset")
+  @Category("Blinkenlights")
+  @Description("A node reset together with its neighbour")
+  static final class ResetEvent extends Event {
+    @Label("X")
+    int x;
+
+    @Label("Y")
+    int y;
+
+    @Label("Other X")
+    int otherX;
+
+    @Label("Other Y")
+    int otherY;
+  }
+
+  @Name("blinkenlights.Frame")
+  @Label("Frame")
+  @Category("Blinkenlights")
+  @Description("A frame: drawing, the reset scan and the frame listeners")
+  static final class FrameEvent extends Event {
+    @Label("Drawing")
+    @Timespan(Timespan.NANOSECONDS)
+    long drawing;
+
+    @Label("Reset Scan")
+    @Timespan(Timespan.NANOSECONDS)
+    long scan;
+
+    @Label("Listeners")
+    @Timespan(Timespan.NANOSECONDS)
+    long listeners;
+
+    @Label("Changed Nodes")
+    int changed;
+
+    @Label("Resets")
+    int resets;
+
+    @Label("Events")
+    @Description("Events handled since the previous frame")
+    int events;
+  }
+
+  @Name("blinkenlights.Show")
+  @Label("Show")
+  @Category("Blinkenlights")
+  @Description("Copying the drawing to the screen")
+  static final class ShowEvent extends Event {
+  }
+
+  private static final EventType STEP = EventType.getEventType(StepEvent.class);
+  private static final EventType CLICK = EventType.getEventType(ClickEvent.class);
+  private static final EventType RESET = EventType.getEventType(ResetEvent.class);
+  private static final EventType FRAME = EventType.getEventType(FrameEvent.class);
+  private static final EventType SHOW = EventType.getEventType(ShowEvent.class);
+
+  static Object beginStep() {
+    if (!STEP.isEnabled())
+      return null;
+    StepEvent e = new StepEvent();
+    e.begin();
+    return e;
+  }
+
+  static void endStep(Object event, int clicks, long events, int pending) {
+    StepEvent e = (StepEvent) event;
+    e.end();
+    if (clicks == 0 && events == 0 || !e.shouldCommit())
+      return; // Idle steps would only hide the busy ones
+    e.clicks = clicks;
+    e.events = events;
+    e.pending = pending;
+    e.commit();
+  }
+
+  static Object beginClick() {
+    if (!CLICK.isEnabled())
+      return null;
+    ClickEvent e = new ClickEvent();
+    e.begin();
+    return e;
+  }
+
+  static void endClick(Object event, int originX, int originY, int clicks, long fanOut) {
+    ClickEvent e = (ClickEvent) event;
+    e.end();
+    if (!e.shouldCommit())
+      return;
+    e.originX = originX;
+    e.originY = originY;
+    e.clicks = clicks;
+    e.fanOut = fanOut;
+    e.commit();
+  }
+
+  static void reset(int x, int y, int otherX, int otherY) {
+    if (!RESET.isEnabled())
+      return;
+    ResetEvent e = new ResetEvent();
+    e.x = x;
+    e.y = y;
+    e.otherX = otherX;
+    e.otherY = otherY;
+    e.commit();
+  }
+
+  static Object beginFrame() {
+    if (!FRAME.isEnabled())
+      return null;
+    FrameEvent e = new FrameEvent();
+    e.begin();
+    return e;
+  }
+
+  static void endFrame(Object event, long drawing, long scan, long listeners, int changed,
+      int resets, int events) {
+    FrameEvent e = (FrameEvent) event;
+    e.end();
+    if (!e.shouldCommit())
+      return;
+    e.drawing = drawing;
+    e.scan = scan;
+    e.listeners = listeners;
+    e.changed = changed;
+    e.resets = resets;
+    e.events = events;
+    e.commit();
+  }
+
+  static Object beginShow() {
+    if (!SHOW.isEnabled())
+      return null;
+    ShowEvent e = new ShowEvent();
+    e.begin();
+    return e;
+  }
+
+  static void endShow(Object event) {
+    ShowEvent e = (ShowEvent) event;
+    e.end();
+    e.commit();
+  }
+}
@@ -0,0 +1,340 @@
+package blinkenlights;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * FrameExporter class. Writes every frame of a grid to disk, without a screen: as a sequence of
+ * PNG files, or as one raw video stream. Add it to a (usually headless) grid as a
+ * {@link FrameListener}.
+ * <p>
+ * On the simulation thread, a frame only costs a copy of the values and pens into a pooled
+ * snapshot. Rendering and encoding happen on a pool of worker threads, and a single writer thread
+ * writes the encoded frames in order. At most <tt>capacity</tt> frames are in flight; when the
+ * workers cannot keep up, the simulation waits, rather than memory filling up.
+ * <p>
+ * A raw video stream is a plain sequence of frames of 3 bytes (red, green, blue) per pixel, row by
+ * row from the top, without any header. For example, it can be converted with
+ * <tt>ffmpeg -f rawvideo -pix_fmt rgb24 -s WIDTHxHEIGHT -i frames.rgb frames.mp4</tt>.
+ */
+public class FrameExporter implements FrameListener, Closeable {
+
+  /**
+   * The output format
+   */
+  public static enum Format {
+    PNG, // One file per frame, frame-000000.png and so on, in a directory
+    RAW // One file of raw RGB frames
+  }
+
+  private static final int LABEL_PIXELS = 16; // From this node size on, draw the values
+  private static final Color[] PENS = { Color.BLACK, Color.YELLOW, Color.GREEN }; // By pen byte
+
+  private final Format format;
+  private final File target;
+  private final int cellPixels;
+  private final int imageWidth;
+  private final int imageHeight;
+  private final ExecutorService workers;
+  private final BlockingQueue<Snapshot> free; // Snapshots ready for reuse
+  private final BlockingQueue<Future<Encoded>> pending; // Encoding frames, in frame order
+  private final Thread writer;
+  private final AtomicLong written = new AtomicLong();
+  private final ThreadLocal<BufferedImage> images = new ThreadLocal<BufferedImage>() {
+    @Override
+    protected BufferedImage initialValue() {
+      return new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+    }
+  };
+  private int frames = 0; // Only used on the simulation thread
+  private volatile IOException failure;
+  private volatile boolean closed = false;
+
+  // The state of the grid in one frame
+  private static final class Snapshot {
+    private int frame;
+    private final int[] values;
+    private final byte[] pens;
+
+    private Snapshot(int cells) {
+      values = new int[cells];
+      pens = new byte[cells];
+    }
+  }
+
+  // An encoded frame; a null data marks the end of the stream
+  private static final class Encoded {
+    private final int frame;
+    private final byte[] data;
+
+    private Encoded(int frame, byte[] data) {
+      this.frame = frame;
+      this.data = data;
+    }
+  }
+
+  /**
+   * Constructor. Starts the worker and writer threads.
+   *
+   * @param grid The grid whose frames will be exported. Only its size is used here
+   * @param format The output {@link Format}
+   * @param target The directory for PNG files (created if needed), or the file for a raw stream
+   * @param cellPixels The width and height of a node, in pixels
+   * @param threads The number of encoding threads
+   * @param capacity The maximum number of frames in flight
+   * @throws IOException if the target can not be created
+   */
+  public FrameExporter(Blinkenlights grid, Format format, File target, int cellPixels, int threads,
+      int capacity) throws IOException {
+    if (cellPixels < 1 || threads < 1 || capacity < 1)
+      throw new IllegalArgumentException("cell size, threads and capacity must be positive");
+    this.format = format;
+    this.target = target;
+    this.cellPixels = cellPixels;
+    imageWidth = grid.getWidth() * cellPixels;
+    imageHeight = grid.getHeight() * cellPixels;
+
+    final OutputStream out;
+    if (format == Format.PNG) {
+      if (!target.isDirectory() && !target.mkdirs())
+        throw new IOException("Can not create directory " + target);
+      out = null;
+    } else
+      out = new BufferedOutputStream(new FileOutputStream(target), 1 << 16);
+
+    free = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; i++)
+      free.add(new Snapshot(grid.getWidth() * grid.getHeight()));
+    pending = new ArrayBlockingQueue<>(capacity);
+    workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "frame-encoder-" + count++);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write(out);
+      }
+    }, "frame-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Copy the frame, and hand it to the workers. Waits when <tt>capacity</tt> frames are already in
+   * flight.
+   */
+  @Override
+  public void frame(Blinkenlights grid, long time) {
+    if (closed || failure != null)
+      return;
+    final Snapshot s;
+    try {
+      s = free.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    s.frame = frames++;
+    int width = grid.getWidth();
+    for (int y = 0; y < grid.getHeight(); y++)
+      for (int x = 0; x < width; x++) {
+        Node n = grid.getNode(x, y);
+        s.values[y * width + x] = n.getValue();
+        s.pens[y * width + x] = DeltaCodec.pen(n.getPenColour());
+      }
+
+    final int columns = width;
+    Future<Encoded> f = workers.submit(new Callable<Encoded>() {
+      @Override
+      public Encoded call() throws IOException {
+        try {
+          return new Encoded(s.frame, encode(render(s, columns)));
+        } finally {
+          free.add(s);
+        }
+      }
+    });
+    try {
+      pending.put(f);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Draw a snapshot as the grid is drawn on screen: circles in the pen colour, with green values
+  private BufferedImage render(Snapshot s, int columns) {
+    BufferedImage img = images.get();
+    Graphics2D g = img.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, imageWidth, imageHeight);
+      boolean labels = cellPixels >= LABEL_PIXELS;
+      if (labels)
+        g.setFont(new Font("SansSerif", Font.PLAIN, Math.max(8, cellPixels / 3)));
+      FontMetrics metrics = g.getFontMetrics();
+      int rows = s.values.length / columns;
+      for (int y = 0; y < rows; y++) {
+        int top = (rows - 1 - y) * cellPixels; // y = 0 at the bottom, as on screen
+        for (int x = 0; x < columns; x++) {
+          int left = x * cellPixels;
+          g.setColor(PENS[s.pens[y * columns + x]]);
+          g.fillOval(left, top, cellPixels, cellPixels);
+          if (labels) {
+            String text = Integer.toString(s.values[y * columns + x]);
+            g.setColor(Color.GREEN);
+            g.drawString(text, left + (cellPixels - metrics.stringWidth(text)) / 2,
+                top + cellPixels / 2 + metrics.getDescent());
+          }
+        }
+      }
+    } finally {
+      g.dispose();
+    }
+    return img;
+  }
+
+  // Encode a rendered frame; runs on a worker thread
+  byte[] encode(BufferedImage img) throws IOException {
+    if (format == Format.PNG) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(imageWidth * imageHeight / 4);
+      ImageIO.write(img, "png", out);
+      return out.toByteArray();
+    }
+    int[] rgb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    byte[] raw = new byte[3 * rgb.length];
+    for (int i = 0, j = 0; i < rgb.length; i++) {
+      raw[j++] = (byte) (rgb[i] >> 16);
+      raw[j++] = (byte) (rgb[i] >> 8);
+      raw[j++] = (byte) rgb[i];
+    }
+    return raw;
+  }
+
+  // The writer thread: write the encoded frames in order, until the end marker. After a failure,
+  // it keeps taking frames until the end marker, so the simulation never waits on a failed export.
+  private void write(OutputStream out) {
+    while (true) {
+      Encoded e;
+      try {
+        e = pending.take().get();
+      } catch (ExecutionException ex) {
+        // Encoding the frame failed, possibly with an Error such as running out of memory
+        if (failure == null)
+          failure = ex.getCause() instanceof IOException ? (IOException) ex.getCause()
+              : new IOException("Encoding a frame failed", ex.getCause());
+        continue;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (e.data == null)
+        break;
+      if (failure != null)
+        continue;
+      try {
+        if (out != null)
+          out.write(e.data);
+        else
+          try (FileOutputStream file =
+              new FileOutputStream(new File(target, String.format("frame-%06d.png", e.frame)))) {
+            file.write(e.data);
+          }
+        written.incrementAndGet();
+      } catch (IOException ex) {
+        failure = ex;
+      }
+    }
+    if (out != null)
+      try {
+        out.close();
+      } catch (IOException e) {
+        if (failure == null)
+          failure = e;
+      }
+  }
+
+  /**
+   * The number of frames written so far
+   *
+   * @return long with the number of frames
+   */
+  public long getWritten() {
+    return written.get();
+  }
+
+  /**
+   * The error that stopped the export, if any. Frames are no longer exported after an error.
+   *
+   * @return The {@link IOException}, or null
+   */
+  public IOException getFailure() {
+    return failure;
+  }
+
+  /**
+   * Finish writing all frames handed over so far, and stop the threads. Must be called from the
+   * simulation thread, or once the simulation has stopped.
+   *
+   * @throws IOException if writing failed
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    FutureTask<Encoded> end = new FutureTask<>(new Callable<Encoded>() {
+      @Override
+      public Encoded call() {
+        return new Encoded(-1, null);
+      }
+    });
+    end.run();
+    try {
+      pending.put(end);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    workers.shutdown();
+    try {
+      workers.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null)
+      throw failure;
+  }
+}
@@ -0,0 +1,16 @@
+package blinkenlights;
+
+/**
+ * Called by {@link Blinkenlights} after every frame: once the grid has been drawn and checked for
+ * resets. Listeners run on the simulation thread, and may read the grid and its nodes.
+ */
+public interface FrameListener {
+
+  /**
+   * A frame has been completed
+   * 
+   * @param grid The grid. {@link Blinkenlights#getChanged()} holds the nodes changed in this frame
+   * @param time The system time of the frame
+   */
+  void frame(Blinkenlights grid, long time);
+}
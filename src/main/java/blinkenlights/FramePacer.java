@@ -0,0 +1,128 @@
+package blinkenlights;
+
+/**
+ * FramePacer class. Decides when the next frame of a grid is drawn. Frames are only drawn when
+ * something has changed, and never faster than the target frame rate.
+ * <p>
+ * Under load, event processing gets priority over drawing: when more than a given number of events
+ * was handled since the previous frame, the interval between frames is doubled (up to
+ * {@value #MAX_BACKOFF} times the target interval). It is halved again for every quiet frame.
+ * <p>
+ * The achieved frame rate is a moving average over the intervals between frames. Pauses of more
+ * than a second, when nothing changed, are not counted.
+ */
+public class FramePacer {
+
+  public static final int MAX_BACKOFF = 8;
+  private static final long SECOND = 1000000000L;
+  private static final double SMOOTHING = 0.1; // Weight of the newest interval in the average
+
+  private final long interval; // Target interval between frames, in ns
+  private int loadLimit; // Events per frame above which drawing backs off
+  private int backoff = 1; // Multiplier of the interval
+  private long lastFrame;
+  private boolean drawn = false; // Has any frame been drawn?
+  private double averageInterval; // Moving average of the achieved interval, in ns
+  private long frames = 0;
+
+  /**
+   * Constructor
+   *
+   * @param targetFps The maximum number of frames per second
+   * @param loadLimit The number of events handled between two frames above which drawing backs off
+   */
+  public FramePacer(double targetFps, int loadLimit) {
+    if (!(targetFps > 0))
+      throw new IllegalArgumentException("target frame rate must be positive");
+    if (loadLimit < 1)
+      throw new IllegalArgumentException("load limit must be positive");
+    interval = (long) (SECOND / targetFps);
+    this.loadLimit = loadLimit;
+    averageInterval = interval;
+  }
+
+  /**
+   * The time of the next frame, when something has changed now
+   *
+   * @param now The current system time
+   * @return The earliest allowed time for the next frame, at or after now
+   */
+  public long nextFrame(long now) {
+    if (!drawn)
+      return now;
+    return Math.max(now, lastFrame + interval * backoff);
+  }
+
+  /**
+   * Record a drawn frame
+   *
+   * @param time The system time of the frame
+   * @param events The number of events handled since the previous frame
+   */
+  public void frameDrawn(long time, int events) {
+    if (drawn && time - lastFrame <= SECOND)
+      averageInterval += SMOOTHING * ((time - lastFrame) - averageInterval);
+    if (events > loadLimit)
+      backoff = Math.min(MAX_BACKOFF, 2 * backoff);
+    else if (backoff > 1)
+      backoff /= 2;
+    lastFrame = time;
+    drawn = true;
+    frames++;
+  }
+
+  /**
+   * The target frame rate
+   *
+   * @return double with the maximum number of frames per second
+   */
+  public double getTargetFps() {
+    return (double) SECOND / interval;
+  }
+
+  /**
+   * The achieved frame rate, while the grid is changing
+   *
+   * @return double with the average number of frames per second
+   */
+  public double getAchievedFps() {
+    return SECOND / averageInterval;
+  }
+
+  /**
+   * The current backoff
+   *
+   * @return int with the multiplier of the target interval. 1 when not under load
+   */
+  public int getBackoff() {
+    return backoff;
+  }
+
+  /**
+   * The number of frames drawn
+   *
+   * @return long with the number of frames
+   */
+  public long getFrames() {
+    return frames;
+  }
+
+  /**
+   * Change the load limit
+   *
+   * @param loadLimit The number of events handled between two frames above which drawing backs off
+   */
+  public void setLoadLimit(int loadLimit) {
+    if (loadLimit < 1)
+      throw new IllegalArgumentException("load limit must be positive");
+    this.loadLimit = loadLimit;
+  }
+
+  /**
+   * Describes the achieved and target frame rates
+   */
+  public String toString() {
+    return String.format("%.1f of %.1f fps, backoff x%d, %d frames", getAchievedFps(),
+        getTargetFps(), backoff, frames);
+  }
+}
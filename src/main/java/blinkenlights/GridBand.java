@@ -0,0 +1,296 @@
+package blinkenlights;
+
+import java.nio.ByteBuffer;
+
+/**
+ * GridBand class. One band of rows of a grid that is partitioned over several processes. Each band
+ * owns a consecutive range of rows, and talks to the other bands through a {@link BandTransport}.
+ * <p>
+ * A click is handled by the band owning the clicked row: it increments that row and its own part
+ * of the column, and sends a compact column message to every other band. Clicks on rows owned by
+ * another band are forwarded to that band.
+ * <p>
+ * A reset scan must visit the cells in the same order as the single-process grid, and a cell can
+ * pair with a neighbour across a band boundary. Each band therefore keeps a halo row above and
+ * below its own rows. When a scan starts, every band sends its first row to the band above, which
+ * uses it as its lower halo. Bands then scan one after the other: band 0 scans as soon as it has
+ * its lower halo, and each band passes its (scanned) last row to the next band as its upper halo,
+ * which also allows that band to start. Resets of a cell in a halo are sent to the owner of the
+ * cell, before the halo, so they are applied in time.
+ * <p>
+ * Clicks must not be sent while a scan is in progress.
+ */
+public class GridBand implements BandTransport.Receiver {
+
+  // Message types
+  private static final byte CLICK = 1; // x, y: a click to be handled by the owner of row y
+  private static final byte COLUMN = 2; // x: increment column x
+  private static final byte RESET = 3; // x, y: set cell to zero
+  private static final byte FIRST_ROW = 4; // The first row of the sender, for the lower halo
+  private static final byte LAST_ROW = 5; // The scanned last row of the sender, for the upper halo
+
+  private final int band;
+  private final int bands;
+  private final int width;
+  private final int height;
+  private final int firstRow; // First row owned by this band
+  private final int rows; // Number of rows owned by this band
+  private final BandTransport transport;
+
+  // Values of the owned rows, with a halo row above (row 0) and below (row rows + 1). The halos of
+  // the first and last band stay zero, and zero never takes part in a reset.
+  private final int[] values;
+  private final int[] flags; // Scratch space for the reset scan
+  private final ByteBuffer out = ByteBuffer.allocate(9); // Reused for small messages
+  private final ByteBuffer rowOut; // Reused for row messages
+
+  // Scan state
+  private boolean scanRequested = false;
+  private boolean haveUpper;
+  private boolean haveLower;
+  private ResetListener listener;
+  private int pairs = 0;
+
+  /**
+   * Constructor. Registers the band with the transport.
+   *
+   * @param band The number of this band. 0 <= band < bands
+   * @param bands The total number of bands. At most the height of the grid
+   * @param width The width of the whole grid
+   * @param height The height of the whole grid
+   * @param transport The transport connecting the bands
+   */
+  public GridBand(int band, int bands, int width, int height, BandTransport transport) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    if (bands < 1 || bands > height || band < 0 || band >= bands)
+      throw new IllegalArgumentException("band " + band + " of " + bands + " is not valid");
+    this.band = band;
+    this.bands = bands;
+    this.width = width;
+    this.height = height;
+    this.transport = transport;
+    firstRow = firstRow(band, bands, height);
+    rows = firstRow(band + 1, bands, height) - firstRow;
+    values = new int[(rows + 2) * width];
+    flags = new int[width];
+    rowOut = ByteBuffer.allocate(1 + 4 * width);
+    haveUpper = band == 0;
+    haveLower = band == bands - 1;
+    transport.register(band, this);
+  }
+
+  /**
+   * The first row owned by a band
+   *
+   * @param band The band number. 0 <= band <= bands
+   * @param bands The total number of bands
+   * @param height The height of the whole grid
+   * @return The first row of the band, or the height of the grid for band == bands
+   */
+  public static int firstRow(int band, int bands, int height) {
+    return (int) ((long) band * height / bands);
+  }
+
+  /**
+   * The band owning a row
+   *
+   * @param y The row. 0 <= y < height
+   * @param bands The total number of bands
+   * @param height The height of the whole grid
+   * @return The band number
+   */
+  public static int owner(int y, int bands, int height) {
+    int b = (int) ((long) y * bands / height);
+    while (firstRow(b + 1, bands, height) <= y)
+      b++;
+    while (firstRow(b, bands, height) > y)
+      b--;
+    return b;
+  }
+
+  public int getFirstRow() {
+    return firstRow;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * Does this band own a row?
+   *
+   * @param y The row
+   * @return true if the row belongs to this band
+   */
+  public boolean owns(int y) {
+    return y >= firstRow && y < firstRow + rows;
+  }
+
+  /**
+   * The value of a cell in one of the owned rows
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. Must be owned by this band
+   * @return int with the current value
+   */
+  public int getValue(int x, int y) {
+    if (!owns(y))
+      throw new IllegalArgumentException("row " + y + " is not owned by band " + band);
+    return values[(y - firstRow + 1) * width + x];
+  }
+
+  /**
+   * Click a cell anywhere in the grid
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   */
+  public void click(int x, int y) {
+    if (!owns(y)) {
+      send(owner(y, bands, height), CLICK, x, y);
+      return;
+    }
+    int r = y - firstRow + 1;
+    for (int i = r * width; i < (r + 1) * width; i++)
+      values[i]++;
+    for (int j = 1; j <= rows; j++)
+      if (j != r)
+        values[j * width + x]++;
+    for (int b = 0; b < bands; b++)
+      if (b != band)
+        send(b, COLUMN, x, 0);
+  }
+
+  /**
+   * Start this band's part of a reset scan. Every band must be asked to scan; the scan completes
+   * once all messages have been delivered.
+   *
+   * @param listener Informed of the resets performed by this band, in scan order. May be null.
+   */
+  public void startScan(ResetListener listener) {
+    this.listener = listener;
+    pairs = 0;
+    scanRequested = true;
+    if (band > 0)
+      sendRow(band - 1, FIRST_ROW, 1);
+    tryScan();
+  }
+
+  /**
+   * Is this band still waiting for its neighbours before it can scan?
+   *
+   * @return true if a scan has been started, but not yet been performed
+   */
+  public boolean isScanPending() {
+    return scanRequested;
+  }
+
+  /**
+   * The number of pairs reset by this band in the last scan
+   *
+   * @return int with the number of pairs
+   */
+  public int getPairs() {
+    return pairs;
+  }
+
+  @Override
+  public void receive(int from, ByteBuffer message) {
+    byte type = message.get();
+    switch (type) {
+      case CLICK:
+        click(message.getInt(), message.getInt());
+        break;
+      case COLUMN:
+        int x = message.getInt();
+        for (int j = 1; j <= rows; j++)
+          values[j * width + x]++;
+        break;
+      case RESET:
+        int rx = message.getInt();
+        int ry = message.getInt();
+        values[(ry - firstRow + 1) * width + rx] = 0;
+        break;
+      case FIRST_ROW:
+        message.asIntBuffer().get(values, (rows + 1) * width, width);
+        haveLower = true;
+        tryScan();
+        break;
+      case LAST_ROW:
+        message.asIntBuffer().get(values, 0, width);
+        haveUpper = true;
+        tryScan();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown message type " + type + " from band " + from);
+    }
+  }
+
+  // Scan once requested and both halos are up to date, then pass the last row on
+  private void tryScan() {
+    if (!scanRequested || !haveUpper || !haveLower)
+      return;
+    scanRequested = false;
+    haveUpper = band == 0;
+    haveLower = band == bands - 1;
+
+    for (int r = 1; r <= rows; r++) {
+      if (ResetScanner.candidates(values, width, rows + 2, r, flags) == 0)
+        continue;
+      for (int x = 0; x < width; x++)
+        if (flags[x] != 0)
+          resolve(x, r);
+    }
+
+    if (band < bands - 1)
+      sendRow(band + 1, LAST_ROW, rows);
+  }
+
+  // Confirm and perform the reset of a candidate, in the Node neighbour order
+  private void resolve(int x, int r) {
+    int i = r * width + x;
+    if (values[i] != 4)
+      return;
+    int other;
+    if (x > 0 && values[i - 1] == 2)
+      other = i - 1;
+    else if (x < width - 1 && values[i + 1] == 2)
+      other = i + 1;
+    else if (values[i - width] == 2)
+      other = i - width;
+    else if (values[i + width] == 2)
+      other = i + width;
+    else
+      return;
+    values[i] = 0;
+    values[other] = 0;
+
+    int ox = other % width;
+    int oRow = other / width;
+    int oy = firstRow + oRow - 1;
+    if (oRow == 0)
+      send(band - 1, RESET, ox, oy);
+    else if (oRow == rows + 1)
+      send(band + 1, RESET, ox, oy);
+    pairs++;
+    if (listener != null)
+      listener.reset(x, firstRow + r - 1, ox, oy);
+  }
+
+  private void send(int to, byte type, int a, int b) {
+    out.clear();
+    out.put(type).putInt(a).putInt(b);
+    out.flip();
+    transport.send(band, to, out);
+  }
+
+  private void sendRow(int to, byte type, int r) {
+    rowOut.clear();
+    rowOut.put(type);
+    rowOut.asIntBuffer().put(values, r * width, width);
+    rowOut.position(1 + 4 * width);
+    rowOut.flip();
+    transport.send(band, to, rowOut);
+  }
+}
@@ -0,0 +1,317 @@
+package blinkenlights;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * GridStats class. Live aggregates of a grid, updated by the simulation on every change of a value:
+ * a histogram of the values, the sum of every row and column, the rate of resets, and the hottest
+ * cells.
+ * <p>
+ * Only the simulation thread writes; any thread may read, without locking. Every single figure is
+ * current, but figures read one after the other may come from different moments. The reset rate
+ * and the hottest cells are published once per frame.
+ */
+public class GridStats {
+
+  /** Values of this and higher share the last bucket of the histogram */
+  public static final int HISTOGRAM_SIZE = 64;
+  private static final long SECOND = 1000000000L;
+  private static final int RATE_WINDOW = 10; // Seconds of simulation time for the reset rate
+
+  private final int width;
+  private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_SIZE);
+  private final AtomicLongArray rowSums;
+  private final AtomicLongArray columnSums;
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong resets = new AtomicLong();
+
+  // Resets per second of simulation time, in a ring of RATE_WINDOW seconds
+  private final AtomicLongArray resetsPerSecond = new AtomicLongArray(RATE_WINDOW);
+  private long second = 0; // The current second, only used by the simulation
+
+  // Indexed max-heap of all cells by value, only used by the simulation
+  private final int hottestCount;
+  private final int[] values; // By cell
+  private final int[] heap; // Cells, heap ordered by value
+  private final int[] position; // Position of every cell in the heap
+  private final int[] frontier; // Scratch space for publish()
+  private boolean changed = true; // A value has changed since the last publish()
+  private volatile List<Cell> hottest = Collections.emptyList();
+
+  /**
+   * A cell and its value
+   */
+  public static final class Cell {
+    private final int x;
+    private final int y;
+    private final int value;
+
+    private Cell(int x, int y, int value) {
+      this.x = x;
+      this.y = y;
+      this.value = value;
+    }
+
+    public int getX() {
+      return x;
+    }
+
+    public int getY() {
+      return y;
+    }
+
+    public int getValue() {
+      return value;
+    }
+
+    public String toString() {
+      return "[" + x + ", " + y + "] = " + value;
+    }
+  }
+
+  /**
+   * Constructor, for a grid of zeros
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param hottestCount The number of hottest cells to keep track of
+   */
+  public GridStats(int width, int height, int hottestCount) {
+    if (width < 1 || height < 1 || hottestCount < 0)
+      throw new IllegalArgumentException("size must be positive, and hottest count not negative");
+    this.width = width;
+    this.hottestCount = Math.min(hottestCount, width * height);
+    rowSums = new AtomicLongArray(height);
+    columnSums = new AtomicLongArray(width);
+    histogram.set(0, (long) width * height);
+    values = new int[width * height];
+    heap = new int[width * height];
+    position = new int[width * height];
+    frontier = new int[2 * this.hottestCount + 1];
+    for (int i = 0; i < heap.length; i++) {
+      heap[i] = i;
+      position[i] = i;
+    }
+  }
+
+  /**
+   * Record a changed value. Called by the simulation.
+   *
+   * @param x The x-coordinate of the cell
+   * @param y The y-coordinate of the cell
+   * @param old The previous value
+   * @param value The new value
+   */
+  public void valueChanged(int x, int y, int old, int value) {
+    long delta = value - old;
+    if (delta == 0)
+      return;
+    add(histogram, Math.min(old, HISTOGRAM_SIZE - 1), -1);
+    add(histogram, Math.min(value, HISTOGRAM_SIZE - 1), 1);
+    add(rowSums, y, delta);
+    add(columnSums, x, delta);
+    total.lazySet(total.get() + delta);
+
+    int cell = y * width + x;
+    values[cell] = value;
+    changed = true;
+    if (delta > 0)
+      siftUp(position[cell]);
+    else
+      siftDown(position[cell]);
+  }
+
+  // Only the simulation writes, so a plain read and an ordered write suffice
+  private static void add(AtomicLongArray a, int i, long delta) {
+    a.lazySet(i, a.get(i) + delta);
+  }
+
+  /**
+   * Record a reset. Called by the simulation.
+   *
+   * @param time The system time of the reset
+   */
+  public void resetOccurred(long time) {
+    advance(time);
+    add(resetsPerSecond, (int) (second % RATE_WINDOW), 1);
+    resets.lazySet(resets.get() + 1);
+  }
+
+  /**
+   * Publish the reset rate and hottest cells for readers. Called by the simulation after every
+   * frame; costs O(k log k) for k hottest cells, and only allocates the published list, when a
+   * value has changed since the last time.
+   *
+   * @param time The system time of the frame
+   */
+  public void publish(long time) {
+    advance(time);
+    if (hottestCount == 0 || !changed)
+      return;
+    changed = false;
+
+    // The k largest values of a heap are within its top k levels: walk them best first, keeping
+    // the heap positions still to visit in a small max-heap of their own
+    Cell[] top = new Cell[hottestCount];
+    int size = 0;
+    frontier[size++] = 0;
+    for (int found = 0; found < hottestCount; found++) {
+      int p = frontier[0];
+      frontier[0] = frontier[--size];
+      sinkFrontier(0, size);
+      int cell = heap[p];
+      top[found] = new Cell(cell % width, cell / width, values[cell]);
+      for (int c = 2 * p + 1; c <= 2 * p + 2 && c < heap.length; c++) {
+        frontier[size] = c;
+        swimFrontier(size++);
+      }
+    }
+    hottest = Collections.unmodifiableList(Arrays.asList(top));
+  }
+
+  private void swimFrontier(int i) {
+    while (i > 0 && values[heap[frontier[(i - 1) / 2]]] < values[heap[frontier[i]]]) {
+      int t = frontier[i];
+      frontier[i] = frontier[(i - 1) / 2];
+      frontier[(i - 1) / 2] = t;
+      i = (i - 1) / 2;
+    }
+  }
+
+  private void sinkFrontier(int i, int size) {
+    while (2 * i + 1 < size) {
+      int c = 2 * i + 1;
+      if (c + 1 < size && values[heap[frontier[c + 1]]] > values[heap[frontier[c]]])
+        c++;
+      if (values[heap[frontier[i]]] >= values[heap[frontier[c]]])
+        return;
+      int t = frontier[i];
+      frontier[i] = frontier[c];
+      frontier[c] = t;
+      i = c;
+    }
+  }
+
+  // Move the rate window on to the second of the given time, clearing the seconds passed
+  private void advance(long time) {
+    long now = time / SECOND;
+    if (now <= second)
+      return;
+    for (long s = Math.max(second + 1, now - RATE_WINDOW + 1); s <= now; s++)
+      resetsPerSecond.lazySet((int) (s % RATE_WINDOW), 0);
+    second = now;
+  }
+
+  private void siftUp(int p) {
+    while (p > 0 && values[heap[(p - 1) / 2]] < values[heap[p]]) {
+      swap(p, (p - 1) / 2);
+      p = (p - 1) / 2;
+    }
+  }
+
+  private void siftDown(int p) {
+    while (2 * p + 1 < heap.length) {
+      int c = 2 * p + 1;
+      if (c + 1 < heap.length && values[heap[c + 1]] > values[heap[c]])
+        c++;
+      if (values[heap[p]] >= values[heap[c]])
+        return;
+      swap(p, c);
+      p = c;
+    }
+  }
+
+  private void swap(int a, int b) {
+    int cell = heap[a];
+    heap[a] = heap[b];
+    heap[b] = cell;
+    position[heap[a]] = a;
+    position[heap[b]] = b;
+  }
+
+  /**
+   * The number of cells with a value
+   *
+   * @param value The value. Values of {@link #HISTOGRAM_SIZE} - 1 and up are counted together
+   * @return long with the number of cells
+   */
+  public long getCount(int value) {
+    return histogram.get(Math.min(value, HISTOGRAM_SIZE - 1));
+  }
+
+  /**
+   * The distribution of the values
+   *
+   * @return long[] with the number of cells per value; the last element counts all higher values
+   */
+  public long[] getHistogram() {
+    long[] h = new long[HISTOGRAM_SIZE];
+    for (int i = 0; i < h.length; i++)
+      h[i] = histogram.get(i);
+    return h;
+  }
+
+  /**
+   * The sum of the values in a row
+   *
+   * @param y The row. 0 <= y < height
+   * @return long with the sum
+   */
+  public long getRowSum(int y) {
+    return rowSums.get(y);
+  }
+
+  /**
+   * The sum of the values in a column
+   *
+   * @param x The column. 0 <= x < width
+   * @return long with the sum
+   */
+  public long getColumnSum(int x) {
+    return columnSums.get(x);
+  }
+
+  /**
+   * The sum of all values
+   *
+   * @return long with the sum
+   */
+  public long getTotal() {
+    return total.get();
+  }
+
+  /**
+   * The number of resets so far
+   *
+   * @return long with the number of resets
+   */
+  public long getResets() {
+    return resets.get();
+  }
+
+  /**
+   * The reset rate, over the last {@value #RATE_WINDOW} seconds of simulation time, as of the last
+   * frame or reset
+   *
+   * @return double with the number of resets per second
+   */
+  public double getResetRate() {
+    long sum = 0;
+    for (int i = 0; i < RATE_WINDOW; i++)
+      sum += resetsPerSecond.get(i);
+    return (double) sum / RATE_WINDOW;
+  }
+
+  /**
+   * The hottest cells, as of the last frame
+   *
+   * @return Unmodifiable list of the cells with the highest values, highest first
+   */
+  public List<Cell> getHottest() {
+    return hottest;
+  }
+}
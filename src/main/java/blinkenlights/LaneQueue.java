@@ -0,0 +1,164 @@
+package blinkenlights;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import blinkenlights.Event.EventType;
+
+/**
+ * LaneQueue class. A priority queue of events in lanes: every {@link EventType} is assigned to a
+ * lane, lane 0 first. Of the events that are due, {@link #next(long)} takes the earliest one of the
+ * first lane that has any, so clicks are not kept waiting behind a backlog of cosmetic events.
+ * Within a lane, events keep their order of time and sequence number.
+ * <p>
+ * A lane whose earliest due event is older than the one taken is passed over. Once a lane has been
+ * passed over <tt>starvationLimit</tt> times in a row, its earliest event goes first, so no event
+ * is deferred forever. With all event types in one lane, this is a plain queue ordered by time.
+ */
+public class LaneQueue {
+
+  private final MinPQ<Event>[] lanes;
+  private final int[] laneOf = new int[EventType.values().length]; // Lane of each event type
+  private final int[] passedOver; // Times in a row each lane was passed over
+  private final int starvationLimit;
+  private int size = 0;
+
+  /**
+   * Create an empty queue, with all event types in lane 0
+   *
+   * @param lanes The number of lanes. Must be positive
+   * @param starvationLimit The number of times in a row a lane may be passed over. Must be
+   *        positive
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public LaneQueue(int lanes, int starvationLimit) {
+    if (lanes < 1 || starvationLimit < 1)
+      throw new IllegalArgumentException("lanes and starvation limit must be positive");
+    this.lanes = new MinPQ[lanes];
+    for (int i = 0; i < lanes; i++)
+      this.lanes[i] = new MinPQ<Event>();
+    this.passedOver = new int[lanes];
+    this.starvationLimit = starvationLimit;
+  }
+
+  /**
+   * Assign an event type to a lane. Pending events are moved to their new lanes.
+   *
+   * @param type The event type
+   * @param lane The lane. 0 <= lane < the number of lanes
+   */
+  public void setLane(EventType type, int lane) {
+    if (lane < 0 || lane >= lanes.length)
+      throw new IllegalArgumentException("no lane " + lane);
+    if (laneOf[type.ordinal()] == lane)
+      return;
+    laneOf[type.ordinal()] = lane;
+    List<Event> pending = new ArrayList<>(size);
+    for (MinPQ<Event> l : lanes)
+      while (!l.isEmpty())
+        pending.add(l.delMin());
+    size = 0;
+    for (Event e : pending)
+      insert(e);
+  }
+
+  /**
+   * The lane of an event type
+   *
+   * @param type The event type
+   * @return int with the lane
+   */
+  public int getLane(EventType type) {
+    return laneOf[type.ordinal()];
+  }
+
+  public void insert(Event e) {
+    lanes[laneOf[e.getType().ordinal()]].insert(e);
+    size++;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The number of events waiting in a lane
+   *
+   * @param lane The lane
+   * @return int with the number of events
+   */
+  public int size(int lane) {
+    return lanes[lane].size();
+  }
+
+  /**
+   * The earliest event of all lanes
+   *
+   * @return The event, or null if the queue is empty
+   */
+  public Event min() {
+    Event min = null;
+    for (MinPQ<Event> l : lanes)
+      if (!l.isEmpty() && (min == null || l.min().compareTo(min) < 0))
+        min = l.min();
+    return min;
+  }
+
+  /**
+   * The time of the earliest event of all lanes
+   *
+   * @return long with the time, or {@link Long#MAX_VALUE} if the queue is empty
+   */
+  public long nextTime() {
+    Event min = min();
+    return min == null ? Long.MAX_VALUE : min.getTime();
+  }
+
+  /**
+   * Remove the earliest event of all lanes, ignoring their priorities
+   *
+   * @return The event, or null if the queue is empty
+   */
+  public Event delMin() {
+    Event min = min();
+    if (min == null)
+      return null;
+    size--;
+    return lanes[laneOf[min.getType().ordinal()]].delMin();
+  }
+
+  /**
+   * Remove the next event to handle of those due: the earliest of the first lane with a due event,
+   * unless a lane with an earlier event has been passed over too often
+   *
+   * @param limit The latest time at which an event is due
+   * @return The event, or null if no event is due
+   */
+  public Event next(long limit) {
+    int first = -1;
+    int starved = -1;
+    for (int i = 0; i < lanes.length; i++) {
+      if (lanes[i].isEmpty() || lanes[i].min().getTime() > limit) {
+        passedOver[i] = 0;
+        continue;
+      }
+      if (first < 0)
+        first = i;
+      else if (lanes[i].min().compareTo(lanes[first].min()) < 0 && starved < 0
+          && ++passedOver[i] >= starvationLimit)
+        starved = i;
+      else if (lanes[i].min().compareTo(lanes[first].min()) > 0)
+        passedOver[i] = 0; // Not kept waiting
+    }
+    if (first < 0)
+      return null;
+    int lane = starved < 0 ? first : starved;
+    passedOver[lane] = 0;
+    size--;
+    return lanes[lane].delMin();
+  }
+}
@@ -0,0 +1,248 @@
+package blinkenlights;
+
+/**
+ * Layout class. Decides where the cell (x, y) of a grid is kept in a one-dimensional array. The
+ * original layout is row-major, which keeps a row together but puts the cells of a column
+ * <tt>width</tt> apart. The other layouts keep cells that are close in the grid close in memory
+ * too, in both directions:
+ * <ul>
+ * <li><em>tiled</em>: square tiles, each row-major, and the tiles row-major;</li>
+ * <li><em>Morton</em>: the Z-order curve, which interleaves the bits of x and y. It is tiled at
+ * every power of two at once.</li>
+ * </ul>
+ * The tiled and Morton layouts pad the grid to whole tiles, or to a square with a power of two as
+ * its side, so an array may have more elements than the grid has cells. The extra elements are
+ * never used.
+ */
+public abstract class Layout {
+
+  /** The largest side of a grid with a Morton layout */
+  public static final int MAX_MORTON_SIDE = 1 << 15;
+
+  protected final int width;
+  protected final int height;
+
+  private Layout(int width, int height) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * The row-major layout: index y * width + x
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   * @return The Layout
+   */
+  public static Layout rowMajor(int width, int height) {
+    return new RowMajor(width, height);
+  }
+
+  /**
+   * A layout in square tiles
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param tile The side of a tile. Must be a power of two
+   * @return The Layout
+   */
+  public static Layout tiled(int width, int height, int tile) {
+    return new Tiled(width, height, tile);
+  }
+
+  /**
+   * The Morton (Z-order) layout
+   *
+   * @param width The number of columns. At most {@value #MAX_MORTON_SIDE}
+   * @param height The number of rows. At most {@value #MAX_MORTON_SIDE}
+   * @return The Layout
+   */
+  public static Layout morton(int width, int height) {
+    return new Morton(width, height);
+  }
+
+  /**
+   * The index of a cell
+   *
+   * @param x The column. 0 <= x < width
+   * @param y The row. 0 <= y < height
+   * @return int with the index. 0 <= result < {@link #size()}
+   */
+  public abstract int index(int x, int y);
+
+  /**
+   * The column of an index
+   *
+   * @param index The index. 0 <= index < {@link #size()}
+   * @return int with the column. Not within the grid for padding
+   */
+  public abstract int x(int index);
+
+  /**
+   * The row of an index
+   *
+   * @param index The index. 0 <= index < {@link #size()}
+   * @return int with the row. Not within the grid for padding
+   */
+  public abstract int y(int index);
+
+  /**
+   * The length of an array holding the grid, including any padding
+   *
+   * @return int with the number of elements
+   */
+  public abstract int size();
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Whether an index holds a cell of the grid, rather than padding
+   *
+   * @param index The index. 0 <= index < {@link #size()}
+   * @return true if it holds a cell
+   */
+  public boolean contains(int index) {
+    return x(index) < width && y(index) < height;
+  }
+
+  private static final class RowMajor extends Layout {
+
+    RowMajor(int width, int height) {
+      super(width, height);
+    }
+
+    @Override
+    public int index(int x, int y) {
+      return y * width + x;
+    }
+
+    @Override
+    public int x(int index) {
+      return index % width;
+    }
+
+    @Override
+    public int y(int index) {
+      return index / width;
+    }
+
+    @Override
+    public int size() {
+      return width * height;
+    }
+
+    @Override
+    public String toString() {
+      return "row-major";
+    }
+  }
+
+  private static final class Tiled extends Layout {
+    private final int shift; // log2 of the side of a tile
+    private final int mask; // The side of a tile, minus one
+    private final int tilesPerRow;
+    private final int tileRows;
+
+    Tiled(int width, int height, int tile) {
+      super(width, height);
+      if (tile < 1 || Integer.bitCount(tile) != 1)
+        throw new IllegalArgumentException("tile side must be a power of two");
+      shift = Integer.numberOfTrailingZeros(tile);
+      mask = tile - 1;
+      tilesPerRow = (width + mask) >> shift;
+      tileRows = (height + mask) >> shift;
+    }
+
+    @Override
+    public int index(int x, int y) {
+      int tile = (y >> shift) * tilesPerRow + (x >> shift);
+      return (tile << 2 * shift) + ((y & mask) << shift) + (x & mask);
+    }
+
+    @Override
+    public int x(int index) {
+      int tile = index >> 2 * shift;
+      return (tile % tilesPerRow << shift) + (index & mask);
+    }
+
+    @Override
+    public int y(int index) {
+      int tile = index >> 2 * shift;
+      return (tile / tilesPerRow << shift) + (index >> shift & mask);
+    }
+
+    @Override
+    public int size() {
+      return tilesPerRow * tileRows << 2 * shift;
+    }
+
+    @Override
+    public String toString() {
+      return "tiled " + (mask + 1);
+    }
+  }
+
+  private static final class Morton extends Layout {
+    private final int side; // A power of two, at least the width and the height
+
+    Morton(int width, int height) {
+      super(width, height);
+      if (width > MAX_MORTON_SIDE || height > MAX_MORTON_SIDE)
+        throw new IllegalArgumentException("width and height must be at most " + MAX_MORTON_SIDE);
+      int s = 1;
+      while (s < Math.max(width, height))
+        s <<= 1;
+      side = s;
+    }
+
+    // Spread the low 16 bits of v to the even bits
+    private static int spread(int v) {
+      v = (v | v << 8) & 0x00FF00FF;
+      v = (v | v << 4) & 0x0F0F0F0F;
+      v = (v | v << 2) & 0x33333333;
+      return (v | v << 1) & 0x55555555;
+    }
+
+    // Gather the even bits of v into the low 16 bits
+    private static int gather(int v) {
+      v &= 0x55555555;
+      v = (v | v >>> 1) & 0x33333333;
+      v = (v | v >>> 2) & 0x0F0F0F0F;
+      v = (v | v >>> 4) & 0x00FF00FF;
+      return (v | v >>> 8) & 0x0000FFFF;
+    }
+
+    @Override
+    public int index(int x, int y) {
+      return spread(x) | spread(y) << 1;
+    }
+
+    @Override
+    public int x(int index) {
+      return gather(index);
+    }
+
+    @Override
+    public int y(int index) {
+      return gather(index >>> 1);
+    }
+
+    @Override
+    public int size() {
+      return side * side;
+    }
+
+    @Override
+    public String toString() {
+      return "Morton";
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package blinkenlights;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from non-negative <tt>long</tt> keys to <tt>int</tt> values, without boxing. Uses open
+ * addressing with linear probing, and backward-shift deletion so no tombstones are left behind.
+ * Entries with the value zero are removed, so the map only holds non-zero values.
+ */
+public class LongIntMap {
+
+  private static final long EMPTY = -1L;
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private int[] values;
+  private int mask; // capacity - 1
+  private int size;
+
+  /**
+   * Constructor. Creates a small map that grows when needed.
+   */
+  public LongIntMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * The number of (non-zero) entries
+   *
+   * @return int with the number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The value of a key
+   *
+   * @param key The key. Must not be negative
+   * @return The value, or zero if the key is not present
+   */
+  public int get(long key) {
+    int i = slot(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key)
+        return values[i];
+      i = (i + 1) & mask;
+    }
+    return 0;
+  }
+
+  /**
+   * Set the value of a key. Setting zero removes the key.
+   *
+   * @param key The key. Must not be negative
+   * @param value The new value
+   */
+  public void put(long key, int value) {
+    int i = slot(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) {
+        if (value == 0)
+          remove(i);
+        else
+          values[i] = value;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    if (value == 0)
+      return;
+    keys[i] = key;
+    values[i] = value;
+    if (++size > (mask + 1) / 2)
+      grow();
+  }
+
+  /**
+   * Add to the value of a key
+   *
+   * @param key The key. Must not be negative
+   * @param delta The amount to add
+   * @return The new value
+   */
+  public int add(long key, int delta) {
+    int value = get(key) + delta;
+    put(key, value);
+    return value;
+  }
+
+  /**
+   * All keys, in ascending order
+   *
+   * @return A new array with the keys
+   */
+  public long[] sortedKeys() {
+    long[] result = new long[size];
+    int n = 0;
+    for (long k : keys)
+      if (k != EMPTY)
+        result[n++] = k;
+    Arrays.sort(result);
+    return result;
+  }
+
+  // Remove the entry in slot i, and shift back any entries that probed past it
+  private void remove(int i) {
+    size--;
+    int hole = i;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == EMPTY)
+        break;
+      int home = slot(keys[j]);
+      // Move the entry if its home slot is not in the (cyclic) range (hole, j]
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    keys[hole] = EMPTY;
+    values[hole] = 0;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++)
+      if (oldKeys[i] != EMPTY)
+        put(oldKeys[i], oldValues[i]);
+  }
+
+  // The home slot of a key; package-private, so tests can pick keys that collide
+  int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,82 @@
+package blinkenlights;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link BandTransport} between bands in the same process, for testing. Sent messages are copied
+ * and queued, and only delivered by {@link #pump()}, so a whole cluster runs deterministically on
+ * one thread.
+ */
+public class LoopbackTransport implements BandTransport {
+
+  private final Map<Integer, Receiver> receivers = new HashMap<>();
+  private final ArrayDeque<Message> queue = new ArrayDeque<>();
+  private long delivered = 0;
+  private long bytes = 0;
+
+  private static final class Message {
+    private final int from;
+    private final int to;
+    private final ByteBuffer data;
+
+    private Message(int from, int to, ByteBuffer data) {
+      this.from = from;
+      this.to = to;
+      this.data = data;
+    }
+  }
+
+  @Override
+  public void register(int band, Receiver receiver) {
+    receivers.put(band, receiver);
+  }
+
+  @Override
+  public void send(int from, int to, ByteBuffer message) {
+    ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+    copy.put(message.duplicate());
+    copy.flip();
+    queue.add(new Message(from, to, copy));
+  }
+
+  /**
+   * Deliver queued messages, including the messages sent while delivering, until none are left
+   * 
+   * @return The number of delivered messages
+   */
+  public int pump() {
+    int n = 0;
+    Message m;
+    while ((m = queue.poll()) != null) {
+      Receiver r = receivers.get(m.to);
+      if (r == null)
+        throw new IllegalStateException("No receiver for band " + m.to);
+      bytes += m.data.remaining();
+      r.receive(m.from, m.data);
+      n++;
+    }
+    delivered += n;
+    return n;
+  }
+
+  /**
+   * The total number of delivered messages
+   * 
+   * @return long with the number of messages
+   */
+  public long getDelivered() {
+    return delivered;
+  }
+
+  /**
+   * The total size of the delivered messages
+   * 
+   * @return long with the number of bytes
+   */
+  public long getBytes() {
+    return bytes;
+  }
+}
@@ -3,7 +3,6 @@ package blinkenlights;
 import java.awt.Color;
 import java.awt.Point;
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
 import java.util.List;
 
 import blinkenlights.Event.EventType;
@@ -21,11 +20,18 @@ import blinkenlights.Event.EventType;
  */
 public class Node {
 
+  private static final Node[] NONE = new Node[0];
+  private static final String[] LABELS = new String[256]; // Texts of the common values
+  static {
+    for (int i = 0; i < LABELS.length; i++)
+      LABELS[i] = Integer.toString(i);
+  }
+
   private int value;
   private Point coord;
   private double radius;
   private Point2D location;
-  private List<Node> neighbours;
+  private Node[] neighbours = NONE; // In the order left, right, down, up (by grid y)
   private Node left;
   private Node right;
   private Node up;
@@ -33,9 +39,9 @@ public class Node {
   private Blinkenlights parent;
 
   private Color penColour;
-  private Color black = Color.BLACK; // Default state
-  private Color green = Color.GREEN; // Reset state
-  private Color yellow = Color.YELLOW; // Update state
+  private static final Color BLACK = Color.BLACK; // Default state
+  private static final Color GREEN = Color.GREEN; // Reset state
+  private static final Color YELLOW = Color.YELLOW; // Update state
 
   /**
    * Constructor
@@ -52,12 +58,7 @@ public class Node {
     location = new Point2D.Double(x, y);
     coord = new Point(row, col);
     this.radius = radius;
-    neighbours = new ArrayList<>();
-    left = null;
-    right = null;
-    up = null;
-    down = null;
-    penColour = black;
+    penColour = BLACK;
     this.parent = parent;
     // System.out.println("Creating node at location " +
     // location.toString());
@@ -70,7 +71,7 @@ public class Node {
    *        neighbours
    */
   public void addNeighbours(List<Node> neighbours) {
-    this.neighbours = neighbours;
+    this.neighbours = neighbours.toArray(new Node[neighbours.size()]);
     // Determine the neighbours' position. This makes propagating updates
     // easier
     left = null;
@@ -99,6 +100,44 @@ public class Node {
     }
   }
 
+  /**
+   * Link this Node to its neighbours in a grid, without building a list first. Only reads the
+   * grid, so the nodes of a grid can be wired in parallel.
+   * 
+   * @param grid All nodes, in the given layout
+   * @param layout The layout of the grid
+   */
+  void wire(Node[] grid, Layout layout) {
+    int x = coord.x;
+    int y = coord.y;
+    left = x > 0 ? grid[layout.index(x - 1, y)] : null;
+    right = x < layout.getWidth() - 1 ? grid[layout.index(x + 1, y)] : null;
+    down = y > 0 ? grid[layout.index(x, y - 1)] : null;
+    up = y < layout.getHeight() - 1 ? grid[layout.index(x, y + 1)] : null;
+    int count = (left != null ? 1 : 0) + (right != null ? 1 : 0) + (down != null ? 1 : 0)
+        + (up != null ? 1 : 0);
+    Node[] linked = new Node[count];
+    int i = 0;
+    if (left != null)
+      linked[i++] = left;
+    if (right != null)
+      linked[i++] = right;
+    if (down != null)
+      linked[i++] = down;
+    if (up != null)
+      linked[i++] = up;
+    neighbours = linked;
+  }
+
+  /**
+   * The neighbours of this Node
+   * 
+   * @return Node[] with the neighbours, in the order left, right, down, up. Must not be modified
+   */
+  Node[] getNeighbours() {
+    return neighbours;
+  }
+
   /**
    * The current value of this Node
    * 
@@ -126,6 +165,16 @@ public class Node {
     return location;
   }
 
+  /**
+   * The colour this Node is currently drawn in: black normally, yellow just after an update, and
+   * green just after a reset.
+   * 
+   * @return {@link Color} of the pen
+   */
+  public Color getPenColour() {
+    return penColour;
+  }
+
   /**
    * Update the state of this Node. It (or a neighbour) has been clicked
    * 
@@ -133,14 +182,19 @@ public class Node {
    */
   private void update(Node src) {
     value += 1;
+    parent.valueChanged(this, value - 1);
 
     // Propagate to row and column neighbours. If this node is the origin,
     // go both ways, otherwise only the opposite direction of the source, in
     // the same row/column
     if (src.coord.equals(coord)) {
-      // We are the origin. Update all our neighbours
+      // We are the origin. Update all our neighbours, which pass the click on along the row and
+      // column
+      Object trace = Tracing.beginClick();
+      long changes = parent.getValueChanges();
       for (Node n : neighbours)
         n.handleEvent(EventType.CLICK, src);
+      Tracing.endClick(trace, coord.x, coord.y, 1, parent.getValueChanges() - changes + 1);
       return;
     } else {
       // On the same column
@@ -164,6 +218,36 @@ public class Node {
     }
   }
 
+  /**
+   * Apply the combined effect of several clicks at once, without propagating them. Used when the
+   * clicks of a tick are coalesced: the grid works out how many of them reach each node.
+   * 
+   * @param clicks The number of clicks reaching this Node. Must be positive
+   */
+  public void increment(int clicks) {
+    value += clicks;
+    parent.valueChanged(this, value - clicks);
+    penColour = YELLOW;
+    parent.nodeChanged(this);
+    // Reset this Node's pen colour after a short delay
+    parent.createEvent(Blinkenlights.RESET_DELAY, this, this, EventType.COLOR_RESET);
+  }
+
+  /**
+   * Reset the pen colour of several nodes at once. The batch equivalent of handling a COLOR_RESET
+   * event for each of them.
+   * 
+   * @param nodes The nodes whose pen colour to reset
+   * @param count The number of nodes. 0 <= count <= nodes.length
+   */
+  public static void resetPens(Node[] nodes, int count) {
+    for (int i = 0; i < count; i++) {
+      Node n = nodes[i];
+      n.penColour = BLACK;
+      n.parent.nodeChanged(n);
+    }
+  }
+
   /**
    * Prints this Node's grid coordinates (x, y)
    */
@@ -175,25 +259,60 @@ public class Node {
    * Trigger a reset, by setting the pen colour to green, and creating a reset event in the future
    */
   public void doReset() {
-    penColour = green;
+    penColour = GREEN;
+    int old = value;
     value = 0;
+    parent.valueChanged(this, old);
+    parent.nodeChanged(this);
     parent.createEvent(Blinkenlights.RESET_DELAY, this, this, EventType.COLOR_RESET);
   }
 
   /**
    * Check if this node needs to be reset. This is the case if this node's value is 4, and it has a
    * neighbour with value 2.
+   * 
+   * @return The neighbouring Node that has been reset together with this Node, or null if there
+   *         was no reset
    */
-  public void checkReset() {
-    if (value == 4)
-      for (Node n : neighbours)
-        if (n.value == 2) {
+  public Node checkReset() {
+    return checkReset(ResetRule.DEFAULT);
+  }
+
+  /**
+   * Check if this node needs to be reset under a rule: if enough of its neighbours pair with it.
+   * It is then reset together with the first of those neighbours that the rule needs.
+   * 
+   * @param rule The {@link ResetRule}
+   * @return The first neighbouring Node that has been reset together with this Node, or null if
+   *         there was no reset
+   */
+  public Node checkReset(ResetRule rule) {
+    long partners = rule.partners(value);
+    if (partners == 0)
+      return null;
+    int matches = 0;
+    for (Node n : neighbours)
+      if ((partners >>> rule.valueClass(n.value) & 1) != 0)
+        matches++;
+    if (matches < rule.getMinMatches())
+      return null;
+
+    Node first = null;
+    int left = rule.getMinMatches();
+    for (Node n : neighbours) {
+      if (left > 0 && (partners >>> rule.valueClass(n.value) & 1) != 0) {
+        if (first == null)
+          first = n;
+        if (!parent.isHeadless()) // Headless grids report resets through their feed only
           System.out.printf("Node %s is resetting itself and node %s%n", this.toString(),
               n.toString());
-          doReset();
-          n.doReset();
-          return;
-        }
+        Tracing.reset(coord.x, coord.y, n.coord.x, n.coord.y);
+        n.doReset();
+        left--;
+      }
+    }
+    doReset();
+    return first;
   }
 
   /**
@@ -201,10 +320,32 @@ public class Node {
    * value of the node.
    */
   public void draw() {
+    draw(true);
+  }
+
+  /**
+   * Draw the node, in the given penColour (depending on its state)
+   * 
+   * @param label Whether to add a green text with the value of the node
+   */
+  public void draw(boolean label) {
     Visual.setPenColour(penColour);
     Visual.circle(location.getX(), location.getY(), radius);
-    Visual.setPenColour(green);
-    Visual.text(location.getX(), location.getY(), Integer.toString(value));
+    if (!label)
+      return;
+    Visual.setPenColour(GREEN);
+    Visual.text(location.getX(), location.getY(), label(value));
+  }
+
+  /**
+   * The text of a value, cached for the values nodes usually have, so drawing a label does not
+   * allocate a new String every frame
+   * 
+   * @param value The value
+   * @return String with the decimal value
+   */
+  static String label(int value) {
+    return value >= 0 && value < LABELS.length ? LABELS[value] : Integer.toString(value);
   }
 
   /**
@@ -217,12 +358,14 @@ public class Node {
     switch (type) {
       case CLICK:
         update(src);
-        penColour = yellow;
+        penColour = YELLOW;
+        parent.nodeChanged(this);
         // Reset this Node's pen colour after a short delay
         parent.createEvent(Blinkenlights.RESET_DELAY, this, this, EventType.COLOR_RESET);
         break;
       case COLOR_RESET: // Reset pen colour
-        penColour = black;
+        penColour = BLACK;
+        parent.nodeChanged(this);
         break;
       case REDRAW: // Ignore
       default:
@@ -0,0 +1,307 @@
+package blinkenlights;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link ValueGrid} that keeps the values and the state of its cells outside of the Java heap,
+ * either in direct buffers or in a memory-mapped file. Heap use only depends on the width of the
+ * grid (a few rows of scratch space), not on its area, so the garbage collector never sees the
+ * grid.
+ * <p>
+ * Cells are addressed in the same row-major order as the one-dimensional Node grid. A single buffer
+ * cannot exceed 2GB, so the cells are split into segments of whole rows.
+ * <p>
+ * A mapped grid doubles as a persistent snapshot: opening an existing file of the same size
+ * continues from the values and states stored in it. The file starts with a header (magic, width,
+ * height), followed by an <tt>int</tt> value per cell and a state byte per cell, all little-endian.
+ */
+public class OffHeapGrid implements ValueGrid, Closeable {
+
+  // Cell states, matching the pen colours of a Node
+  public static final byte STATE_NORMAL = 0; // Black
+  public static final byte STATE_UPDATED = 1; // Yellow
+  public static final byte STATE_RESET = 2; // Green
+
+  private static final int MAGIC = 0x426c6e6b; // "Blnk"
+  private static final int HEADER_SIZE = 16;
+  private static final int MAX_SEGMENT_CELLS = 1 << 26; // 256MB of values per segment
+
+  /** The widest grid: the values of a row must fit in one buffer of at most 2GB */
+  public static final int MAX_WIDTH = Integer.MAX_VALUE / 4;
+
+  private final int width;
+  private final int height;
+  private final int rowsPerSegment;
+  private final ByteBuffer[] values;
+  private final ByteBuffer[] states;
+  private final IntBuffer[] intValues; // int views on the value segments, for bulk row reads
+  private final FileChannel channel; // null when not backed by a file
+
+  // Scratch space for the reset scan: a window of up to three rows, and the candidate flags
+  private final int[] rows;
+  private final int[] flags;
+
+  private OffHeapGrid(int width, int height, FileChannel channel) throws IOException {
+    checkSize(width, height);
+    this.width = width;
+    this.height = height;
+    this.channel = channel;
+    rowsPerSegment = Math.max(1, MAX_SEGMENT_CELLS / width);
+    int segments = (height + rowsPerSegment - 1) / rowsPerSegment;
+    values = new ByteBuffer[segments];
+    states = new ByteBuffer[segments];
+    intValues = new IntBuffer[segments];
+
+    long cells = (long) width * height;
+    for (int s = 0; s < segments; s++) {
+      int segmentRows = Math.min(rowsPerSegment, height - s * rowsPerSegment);
+      long first = (long) s * rowsPerSegment * width;
+      int segmentCells = segmentRows * width;
+      if (channel == null) {
+        values[s] = ByteBuffer.allocateDirect(4 * segmentCells); // At most 2GB, see checkSize
+        states[s] = ByteBuffer.allocateDirect(segmentCells);
+      } else {
+        values[s] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * 4,
+            segmentCells * 4L);
+        states[s] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + cells * 4 + first,
+            segmentCells);
+      }
+      values[s].order(ByteOrder.LITTLE_ENDIAN);
+      intValues[s] = values[s].asIntBuffer();
+    }
+    rows = new int[3 * width];
+    flags = new int[width];
+  }
+
+  // A segment holds at least one row, and a segment of values must fit in one buffer
+  private static void checkSize(int width, int height) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    if (width > MAX_WIDTH)
+      throw new IllegalArgumentException("width must be at most " + MAX_WIDTH);
+  }
+
+  /**
+   * Create a grid in direct (off-heap) buffers
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   * @return The new, zeroed grid
+   * @throws IllegalArgumentException if the size is not positive, or the width is over
+   *         {@link #MAX_WIDTH}
+   */
+  public static OffHeapGrid allocate(int width, int height) {
+    try {
+      return new OffHeapGrid(width, height, null);
+    } catch (IOException e) {
+      throw new IllegalStateException("Direct buffers cannot fail with I/O errors", e);
+    }
+  }
+
+  /**
+   * Create or reopen a grid in a memory-mapped file
+   *
+   * @param file The file holding the grid. It is created if it does not exist.
+   * @param width The number of columns
+   * @param height The number of rows
+   * @return The grid, holding the values of the file if it already existed
+   * @throws IOException if the file cannot be mapped, or holds a grid of a different size
+   * @throws IllegalArgumentException if the size is not positive, or the width is over
+   *         {@link #MAX_WIDTH}
+   */
+  public static OffHeapGrid map(File file, int width, int height) throws IOException {
+    checkSize(width, height);
+    boolean exists = file.length() > 0;
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    FileChannel channel = raf.getChannel();
+    try {
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      if (exists) {
+        if (header.getInt(0) != MAGIC)
+          throw new IOException(file + " does not contain a grid");
+        if (header.getInt(4) != width || header.getInt(8) != height)
+          throw new IOException(file + " holds a grid of size [" + header.getInt(4) + " x "
+              + header.getInt(8) + "], not [" + width + " x " + height + "]");
+      } else {
+        header.putInt(0, MAGIC);
+        header.putInt(4, width);
+        header.putInt(8, height);
+      }
+      return new OffHeapGrid(width, height, channel);
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getValue(int x, int y) {
+    return values[y / rowsPerSegment].getInt(offset(x, y) * 4);
+  }
+
+  /**
+   * Set the value of a cell
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @param value The new value
+   */
+  public void setValue(int x, int y, int value) {
+    values[y / rowsPerSegment].putInt(offset(x, y) * 4, value);
+  }
+
+  /**
+   * The state of a cell
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @return One of {@link #STATE_NORMAL}, {@link #STATE_UPDATED} or {@link #STATE_RESET}
+   */
+  public byte getState(int x, int y) {
+    return states[y / rowsPerSegment].get(offset(x, y));
+  }
+
+  /**
+   * Set the state of a cell
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @param state One of {@link #STATE_NORMAL}, {@link #STATE_UPDATED} or {@link #STATE_RESET}
+   */
+  public void setState(int x, int y, byte state) {
+    states[y / rowsPerSegment].put(offset(x, y), state);
+  }
+
+  /**
+   * Increments the clicked row and column, and marks every incremented cell as updated
+   */
+  @Override
+  public void click(int x, int y) {
+    ByteBuffer v = values[y / rowsPerSegment];
+    ByteBuffer s = states[y / rowsPerSegment];
+    int row = offset(0, y);
+    for (int i = row; i < row + width; i++) {
+      v.putInt(i * 4, v.getInt(i * 4) + 1);
+      s.put(i, STATE_UPDATED);
+    }
+    for (int j = 0; j < height; j++) {
+      if (j == y)
+        continue;
+      v = values[j / rowsPerSegment];
+      int i = offset(x, j);
+      v.putInt(i * 4, v.getInt(i * 4) + 1);
+      states[j / rowsPerSegment].put(i, STATE_UPDATED);
+    }
+  }
+
+  /**
+   * Reset pairs are set to zero, and marked with {@link #STATE_RESET}
+   */
+  @Override
+  public int scanResets(ResetListener listener) {
+    // The row and its neighbouring rows are copied to the heap, and the candidates found there.
+    // The window slides down a row at a time, so each row is read once. Resets only zero values,
+    // so a stale window can only flag too many candidates, and resolve checks each one again.
+    int pairs = 0;
+    readRow(0, 0);
+    if (height > 1)
+      readRow(1, 1);
+    for (int y = 0; y < height; y++) {
+      int first = Math.max(0, y - 1);
+      int last = Math.min(height - 1, y + 1);
+      if (ResetScanner.candidates(rows, width, last - first + 1, y - first, flags) != 0)
+        for (int x = 0; x < width; x++)
+          if (flags[x] != 0)
+            pairs += resolve(x, y, listener);
+
+      // Slide down: rows y and y + 1 move to the top, and row y + 2 is read below them
+      if (y > 0 && y + 1 < height)
+        System.arraycopy(rows, width, rows, 0, 2 * width);
+      if (y + 2 < height)
+        readRow(y + 2, 2);
+    }
+    return pairs;
+  }
+
+  // Copy a row of values to a row of the scan window
+  private void readRow(int y, int row) {
+    IntBuffer b = intValues[y / rowsPerSegment];
+    b.position(offset(0, y));
+    b.get(rows, row * width, width);
+  }
+
+  /**
+   * Confirm and perform the reset of a candidate, checking the neighbours in the Node order: left,
+   * right, up, down.
+   */
+  private int resolve(int x, int y, ResetListener listener) {
+    if (getValue(x, y) != 4)
+      return 0;
+    int ox = x;
+    int oy = y;
+    if (x > 0 && getValue(x - 1, y) == 2)
+      ox = x - 1;
+    else if (x < width - 1 && getValue(x + 1, y) == 2)
+      ox = x + 1;
+    else if (y > 0 && getValue(x, y - 1) == 2)
+      oy = y - 1;
+    else if (y < height - 1 && getValue(x, y + 1) == 2)
+      oy = y + 1;
+    else
+      return 0;
+    setValue(x, y, 0);
+    setValue(ox, oy, 0);
+    setState(x, y, STATE_RESET);
+    setState(ox, oy, STATE_RESET);
+    if (listener != null)
+      listener.reset(x, y, ox, oy);
+    return 1;
+  }
+
+  /**
+   * Write all changes of a mapped grid to its file. Does nothing for a grid in direct buffers.
+   */
+  public void force() {
+    if (channel == null)
+      return;
+    for (int s = 0; s < values.length; s++) {
+      ((MappedByteBuffer) values[s]).force();
+      ((MappedByteBuffer) states[s]).force();
+    }
+  }
+
+  /**
+   * Write all changes to the file, and close it. The grid must not be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel == null)
+      return;
+    force();
+    channel.close();
+  }
+
+  // Offset of a cell within its segment, in cells
+  private int offset(int x, int y) {
+    return (y % rowsPerSegment) * width + x;
+  }
+}
@@ -0,0 +1,264 @@
+package blinkenlights;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact {@link ValueGrid} that packs the cell values into 4- or 8-bit lanes inside
+ * <tt>long</tt> words. Every row starts on a new word, so a row can be processed a word at a time,
+ * and the word above or below a word is always at the same offset in the neighbouring row.
+ * <p>
+ * Only the values two and four matter for resets, so nearly all cells fit in a lane. The rare cell
+ * that climbs higher is promoted: its lane is set to the maximum lane value, and the real value is
+ * kept in an overflow map. The maximum lane value is never two or four, so promoted cells never
+ * take part in the word-level reset detection.
+ * <p>
+ * Memory use is 8 (4-bit lanes) or 16 (8-bit lanes) times smaller than an <tt>int</tt> per cell,
+ * and a lot smaller still than a {@link Node} per cell.
+ */
+public class PackedGrid implements ValueGrid {
+
+  private final int width;
+  private final int height;
+  private final int bits; // Bits per lane
+  private final int lanes; // Lanes per word
+  private final int rowWords; // Words per row
+  private final long laneMask; // Maximum lane value, also used to mark promoted cells
+  private final long ones; // The value one in every lane
+  private final long lows; // All bits but the top bit set in every lane
+  private final long highs; // The top bit set in every lane
+  private final long lastWordMask; // Lanes of the last word in a row that are part of the grid
+  private final long[] words;
+  private final Map<Long, Integer> overflow = new HashMap<>(); // Values of promoted cells
+
+  /**
+   * Constructor
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param bits The number of bits per cell, either 4 or 8
+   * @throws IllegalArgumentException if the size is not positive, or the number of bits is not 4
+   *         or 8
+   */
+  public PackedGrid(int width, int height, int bits) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    if (bits != 4 && bits != 8)
+      throw new IllegalArgumentException("bits must be 4 or 8");
+    this.width = width;
+    this.height = height;
+    this.bits = bits;
+    lanes = 64 / bits;
+    rowWords = (width + lanes - 1) / lanes;
+    laneMask = (1L << bits) - 1;
+
+    long o = 0;
+    for (int i = 0; i < lanes; i++)
+      o |= 1L << (i * bits);
+    ones = o;
+    lows = ones * (laneMask >>> 1);
+    highs = ones << (bits - 1);
+
+    int lastLanes = width - (rowWords - 1) * lanes;
+    lastWordMask = lastLanes == lanes ? -1L : (1L << (lastLanes * bits)) - 1;
+    words = new long[rowWords * height];
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * The number of bits per cell
+   *
+   * @return int with either 4 or 8
+   */
+  public int getBits() {
+    return bits;
+  }
+
+  /**
+   * The number of cells that did not fit in a lane, and have been promoted to the overflow map
+   *
+   * @return int with the number of promoted cells
+   */
+  public int getPromoted() {
+    return overflow.size();
+  }
+
+  @Override
+  public int getValue(int x, int y) {
+    int lane = lane(x, y);
+    if (lane == laneMask)
+      return overflow.get(index(x, y));
+    return lane;
+  }
+
+  /**
+   * Set the value of a cell, promoting or demoting it if needed
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @param value The new value. Must not be negative
+   */
+  public void setValue(int x, int y, int value) {
+    if (value >= laneMask) {
+      overflow.put(index(x, y), value);
+      setLane(x, y, laneMask);
+    } else {
+      if (lane(x, y) == laneMask)
+        overflow.remove(index(x, y));
+      setLane(x, y, value);
+    }
+  }
+
+  @Override
+  public void click(int x, int y) {
+    incrementRow(y);
+    for (int j = 0; j < height; j++)
+      if (j != y)
+        increment(x, j);
+  }
+
+  /**
+   * Increment all the cells in a row. Words without a lane close to overflowing are incremented
+   * with a single addition.
+   *
+   * @param y The row to increment. 0 <= y < height
+   */
+  public void incrementRow(int y) {
+    int base = y * rowWords;
+    for (int i = 0; i < rowWords; i++) {
+      long w = words[base + i];
+      long add = i == rowWords - 1 ? ones & lastWordMask : ones;
+      if ((nearlyFull(w) & add) == 0) {
+        words[base + i] = w + add;
+      } else {
+        // At least one lane would reach the maximum; increment lane by lane
+        int end = Math.min(width, (i + 1) * lanes);
+        for (int x = i * lanes; x < end; x++)
+          increment(x, y);
+      }
+    }
+  }
+
+  @Override
+  public int scanResets(ResetListener listener) {
+    int pairs = 0;
+    for (int y = 0; y < height; y++) {
+      int base = y * rowWords;
+      for (int i = 0; i < rowWords; i++) {
+        long fours = equal(words[base + i], 4, i);
+        if (fours == 0)
+          continue;
+        long candidates = fours & twoNeighbours(y, i);
+        while (candidates != 0) {
+          int bit = Long.numberOfTrailingZeros(candidates);
+          candidates &= candidates - 1;
+          pairs += resolve(i * lanes + bit / bits, y, listener);
+        }
+      }
+    }
+    return pairs;
+  }
+
+  /**
+   * Word-level mask of the cells in word i of row y that have a neighbour of value two. Each
+   * matching cell has the top bit of its lane set.
+   */
+  private long twoNeighbours(int y, int i) {
+    int base = y * rowWords;
+    long twos = equal(words[base + i], 2, i);
+    long previous = i > 0 ? equal(words[base + i - 1], 2, i - 1) : 0;
+    long next = i < rowWords - 1 ? equal(words[base + i + 1], 2, i + 1) : 0;
+
+    long left = (twos << bits) | (previous >>> (64 - bits));
+    long right = (twos >>> bits) | (next << (64 - bits));
+    long up = y > 0 ? equal(words[base - rowWords + i], 2, i) : 0;
+    long down = y < height - 1 ? equal(words[base + rowWords + i], 2, i) : 0;
+    return left | right | up | down;
+  }
+
+  /**
+   * Confirm and perform the reset of a candidate cell. Earlier resets in the same scan may have
+   * zeroed the cell or its neighbours since the candidate mask was computed, so the values are
+   * checked again, in the same neighbour order as the Node based grid.
+   */
+  private int resolve(int x, int y, ResetListener listener) {
+    if (getValue(x, y) != 4)
+      return 0;
+    int ox = -1;
+    int oy = -1;
+    if (x > 0 && getValue(x - 1, y) == 2) {
+      ox = x - 1;
+      oy = y;
+    } else if (x < width - 1 && getValue(x + 1, y) == 2) {
+      ox = x + 1;
+      oy = y;
+    } else if (y > 0 && getValue(x, y - 1) == 2) {
+      ox = x;
+      oy = y - 1;
+    } else if (y < height - 1 && getValue(x, y + 1) == 2) {
+      ox = x;
+      oy = y + 1;
+    }
+    if (ox < 0)
+      return 0;
+    setLane(x, y, 0);
+    setLane(ox, oy, 0);
+    if (listener != null)
+      listener.reset(x, y, ox, oy);
+    return 1;
+  }
+
+  /**
+   * Mask with the top bit set in every lane of the word that equals the given value. Uses the
+   * carry-free zero-lane test, so there are no false positives from borrows between lanes. Lanes
+   * beyond the width of the grid are never set.
+   */
+  private long equal(long w, long value, int i) {
+    long t = w ^ (ones * value);
+    long zero = ~(((t & lows) + lows) | t) & highs;
+    return i == rowWords - 1 ? zero & lastWordMask : zero;
+  }
+
+  /**
+   * Mask with the lowest bit set in every lane of the word that would reach the maximum lane value
+   * when incremented.
+   */
+  private long nearlyFull(long w) {
+    long t = w >>> 1;
+    for (int k = 2; k < bits; k++)
+      t &= w >>> k;
+    return t & ones;
+  }
+
+  private void increment(int x, int y) {
+    int lane = lane(x, y);
+    if (lane < laneMask - 1)
+      words[y * rowWords + x / lanes] += 1L << ((x % lanes) * bits);
+    else
+      setValue(x, y, getValue(x, y) + 1);
+  }
+
+  private int lane(int x, int y) {
+    long w = words[y * rowWords + x / lanes];
+    return (int) ((w >>> ((x % lanes) * bits)) & laneMask);
+  }
+
+  private void setLane(int x, int y, long lane) {
+    int i = y * rowWords + x / lanes;
+    int shift = (x % lanes) * bits;
+    words[i] = (words[i] & ~(laneMask << shift)) | (lane << shift);
+  }
+
+  private long index(int x, int y) {
+    return (long) y * width + x;
+  }
+}
@@ -0,0 +1,17 @@
+package blinkenlights;
+
+/**
+ * Receives the pairs of cells reset by a {@link ValueGrid}
+ */
+public interface ResetListener {
+
+  /**
+   * A pair of neighbouring cells has been reset
+   * 
+   * @param x The x-coordinate of the cell with value four
+   * @param y The y-coordinate of the cell with value four
+   * @param otherX The x-coordinate of the neighbour with value two
+   * @param otherY The y-coordinate of the neighbour with value two
+   */
+  void reset(int x, int y, int otherX, int otherY);
+}
@@ -0,0 +1,145 @@
+package blinkenlights;
+
+import java.util.Arrays;
+
+/**
+ * ResetRule class. Decides which nodes are reset together. The original rule resets a node of
+ * value four together with a neighbour of value two; other rules pair other values, take values
+ * modulo some number, or need several matching neighbours.
+ * <p>
+ * A rule is compiled into a lookup table when it is created. Values are first mapped to a class:
+ * the value itself (values of {@value #MAX_VALUE} and up share one class that never matches), or
+ * the value modulo the modulus of a modular rule. The table holds, for every class of a node, a
+ * <tt>long</tt> with a bit set for every class of neighbour that pairs with it. Checking a pair is
+ * then a load, a shift and an <tt>and</tt>, whatever the rule.
+ * <p>
+ * A node resets when at least {@link #getMinMatches()} of its neighbours pair with it. It is reset
+ * together with that many of them, the first ones in the order left, right, up, down. Class zero
+ * can not be used in a rule, so a node that has just been reset never takes part in a reset.
+ */
+public final class ResetRule {
+
+  /** The largest value a non-modular rule can name */
+  public static final int MAX_VALUE = 62;
+  private static final int OTHER = 63; // The class of all values above MAX_VALUE
+
+  /** Resets a node of value four together with a neighbour of value two */
+  public static final ResetRule DEFAULT = pairs(1, 4, 2);
+
+  private final long[] partners = new long[OTHER + 1]; // Indexed by the class of the node
+  private final int modulus; // 0 if the values are used as they are
+  private final int minMatches;
+  private final int[] pairs;
+
+  private ResetRule(int modulus, int minMatches, int[] pairs) {
+    if (minMatches < 1 || minMatches > 4)
+      throw new IllegalArgumentException("minimum matches must be between 1 and 4");
+    if (pairs.length == 0 || pairs.length % 2 != 0)
+      throw new IllegalArgumentException("pairs must be given as (node, neighbour) values");
+    int limit = modulus == 0 ? MAX_VALUE : modulus - 1;
+    for (int i = 0; i < pairs.length; i += 2) {
+      int self = pairs[i];
+      int other = pairs[i + 1];
+      if (self < 1 || self > limit || other < 1 || other > limit)
+        throw new IllegalArgumentException(
+            "pair (" + self + ", " + other + ") is not within 1 and " + limit);
+      partners[self] |= 1L << other;
+    }
+    this.modulus = modulus;
+    this.minMatches = minMatches;
+    this.pairs = pairs.clone();
+  }
+
+  /**
+   * A rule pairing values
+   *
+   * @param minMatches The number of neighbours that must pair with a node to reset it. 1 to 4
+   * @param pairs The values of a node and a neighbour that pair, as (node, neighbour) couples. Each
+   *        value between 1 and {@value #MAX_VALUE}
+   * @return The compiled rule
+   */
+  public static ResetRule pairs(int minMatches, int... pairs) {
+    return new ResetRule(0, minMatches, pairs);
+  }
+
+  /**
+   * A rule pairing values modulo a number
+   *
+   * @param modulus The number to take values modulo. 2 to 64
+   * @param minMatches The number of neighbours that must pair with a node to reset it. 1 to 4
+   * @param pairs The values of a node and a neighbour that pair, modulo the modulus, as (node,
+   *        neighbour) couples. Each value between 1 and modulus - 1
+   * @return The compiled rule
+   */
+  public static ResetRule modular(int modulus, int minMatches, int... pairs) {
+    if (modulus < 2 || modulus > OTHER + 1)
+      throw new IllegalArgumentException("modulus must be between 2 and " + (OTHER + 1));
+    return new ResetRule(modulus, minMatches, pairs);
+  }
+
+  /**
+   * The class of a value, as used in the lookup table
+   *
+   * @param value A (non-negative) node value
+   * @return int with the class. 0 <= class <= 63
+   */
+  public int valueClass(int value) {
+    return modulus == 0 ? Math.min(value, OTHER) : value % modulus;
+  }
+
+  /**
+   * The classes of neighbour that pair with a node
+   *
+   * @param value The value of the node
+   * @return long with bit c set if a neighbour of class c pairs with the node. 0 if the node never
+   *         takes part in a reset
+   */
+  public long partners(int value) {
+    return partners[valueClass(value)];
+  }
+
+  /**
+   * Does a neighbour pair with a node?
+   *
+   * @param self The value of the node
+   * @param neighbour The value of the neighbour
+   * @return true if they pair
+   */
+  public boolean matches(int self, int neighbour) {
+    return (partners(self) >>> valueClass(neighbour) & 1) != 0;
+  }
+
+  /**
+   * The number of neighbours that must pair with a node to reset it
+   *
+   * @return int between 1 and 4
+   */
+  public int getMinMatches() {
+    return minMatches;
+  }
+
+  /**
+   * The modulus of the rule
+   *
+   * @return int with the modulus, or 0 if values are used as they are
+   */
+  public int getModulus() {
+    return modulus;
+  }
+
+  // The lookup table, indexed by class, for the scanners. Must not be modified.
+  long[] table() {
+    return partners;
+  }
+
+  /**
+   * Describes the rule, for example <tt>pairs(1, 4, 2)</tt>
+   */
+  public String toString() {
+    String p = Arrays.toString(pairs);
+    p = p.substring(1, p.length() - 1);
+    if (modulus == 0)
+      return "pairs(" + minMatches + ", " + p + ")";
+    return "modular(" + modulus + ", " + minMatches + ", " + p + ")";
+  }
+}
@@ -0,0 +1,167 @@
+package blinkenlights;
+
+/**
+ * Reset detection over a flat, row-major array of values, as used by {@link ArrayGrid}.
+ * <p>
+ * Finding the candidates for a reset is split from performing the resets. The candidates of a row
+ * are found by comparing the row with itself shifted by one cell, and with the rows above and
+ * below, through the lookup table of a {@link ResetRule}. That loop only uses array loads,
+ * <tt>min</tt>, shifts, <tt>and</tt>, addition and subtraction, with no branches, so its cost does
+ * not depend on the rule. The (rare) candidates are then confirmed one by one, in row order, so the
+ * outcome matches the sequential Node based scan exactly.
+ */
+public class ResetScanner {
+
+  private ResetScanner() {}
+
+  // Neighbour offsets, in the Node neighbour order: left, right, up, down
+  private static final int[] DX = { -1, 1, 0, 0 };
+  private static final int[] DY = { 0, 0, -1, 1 };
+
+  /**
+   * 1 if a neighbour of the given class pairs with a node, 0 otherwise
+   */
+  private static int match(long partners, int neighbourClass) {
+    return (int) (partners >>> neighbourClass) & 1;
+  }
+
+  /**
+   * Mark the reset candidates of a row under the {@link ResetRule#DEFAULT default rule}: the cells
+   * of value four that have a neighbour of value two.
+   * 
+   * @see #candidates(int[], int, int, int, int[], ResetRule)
+   */
+  public static int candidates(int[] v, int width, int height, int y, int[] flags) {
+    return candidates(v, width, height, y, flags, ResetRule.DEFAULT);
+  }
+
+  /**
+   * Mark the reset candidates of a row: the cells with at least as many pairing neighbours as the
+   * rule needs. Neighbours outside the grid are replaced by the cell itself, and masked out, so the
+   * edges need no special treatment.
+   * 
+   * @param v The values, row-major
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param y The row to mark. 0 <= y < height
+   * @param flags Receives 1 for every candidate and 0 otherwise. Length at least width
+   * @param rule The {@link ResetRule}
+   * @return Non-zero if the row contains at least one candidate
+   */
+  public static int candidates(int[] v, int width, int height, int y, int[] flags,
+      ResetRule rule) {
+    long[] table = rule.table();
+    int need = rule.getMinMatches() - 1;
+    int r = y * width;
+    int hasUp = y > 0 ? 1 : 0;
+    int hasDown = y < height - 1 ? 1 : 0;
+    int u = r - hasUp * width;
+    int d = r + hasDown * width;
+
+    // The same loop twice, so a rule without a modulus needs no division
+    int any = 0;
+    int modulus = rule.getModulus();
+    if (modulus == 0) {
+      for (int x = 0; x < width; x++) {
+        int hasLeft = ((x - 1) >>> 31) ^ 1;
+        int hasRight = ((width - 2 - x) >>> 31) ^ 1;
+        long p = table[Math.min(v[r + x], 63)];
+        int c = (match(p, Math.min(v[r + x - hasLeft], 63)) & hasLeft)
+            + (match(p, Math.min(v[r + x + hasRight], 63)) & hasRight)
+            + (match(p, Math.min(v[u + x], 63)) & hasUp)
+            + (match(p, Math.min(v[d + x], 63)) & hasDown);
+        int f = (need - c) >>> 31;
+        flags[x] = f;
+        any |= f;
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        int hasLeft = ((x - 1) >>> 31) ^ 1;
+        int hasRight = ((width - 2 - x) >>> 31) ^ 1;
+        long p = table[v[r + x] % modulus];
+        int c = (match(p, v[r + x - hasLeft] % modulus) & hasLeft)
+            + (match(p, v[r + x + hasRight] % modulus) & hasRight)
+            + (match(p, v[u + x] % modulus) & hasUp)
+            + (match(p, v[d + x] % modulus) & hasDown);
+        int f = (need - c) >>> 31;
+        flags[x] = f;
+        any |= f;
+      }
+    }
+    return any;
+  }
+
+  /**
+   * Reset all neighbouring pairs of values four and two
+   * 
+   * @see #scan(int[], int, int, int[], ResetRule, ResetListener)
+   */
+  public static int scan(int[] v, int width, int height, int[] flags, ResetListener listener) {
+    return scan(v, width, height, flags, ResetRule.DEFAULT, listener);
+  }
+
+  /**
+   * Perform all resets of a rule
+   * 
+   * @param v The values, row-major
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param flags Scratch space of at least width elements
+   * @param rule The {@link ResetRule}
+   * @param listener Informed of every reset, with the first neighbour reset along. May be null.
+   * @return The number of resets
+   */
+  public static int scan(int[] v, int width, int height, int[] flags, ResetRule rule,
+      ResetListener listener) {
+    int resets = 0;
+    for (int y = 0; y < height; y++) {
+      if (candidates(v, width, height, y, flags, rule) == 0)
+        continue;
+      for (int x = 0; x < width; x++)
+        if (flags[x] != 0)
+          resets += resolve(v, width, height, x, y, rule, listener);
+    }
+    return resets;
+  }
+
+  /**
+   * Confirm and perform the reset of a candidate. An earlier reset in the same row may have zeroed
+   * the candidate or its neighbours, so the values are checked again in the Node neighbour order:
+   * left, right, up, down.
+   */
+  static int resolve(int[] v, int width, int height, int x, int y, ResetRule rule,
+      ResetListener listener) {
+    int i = y * width + x;
+    long p = rule.partners(v[i]);
+    if (p == 0)
+      return 0;
+    int matches = 0;
+    for (int k = 0; k < 4; k++) {
+      int nx = x + DX[k];
+      int ny = y + DY[k];
+      if (nx >= 0 && nx < width && ny >= 0 && ny < height
+          && match(p, rule.valueClass(v[ny * width + nx])) != 0)
+        matches++;
+    }
+    if (matches < rule.getMinMatches())
+      return 0;
+
+    int first = -1;
+    int left = rule.getMinMatches();
+    for (int k = 0; k < 4 && left > 0; k++) {
+      int nx = x + DX[k];
+      int ny = y + DY[k];
+      if (nx >= 0 && nx < width && ny >= 0 && ny < height
+          && match(p, rule.valueClass(v[ny * width + nx])) != 0) {
+        if (first < 0)
+          first = ny * width + nx;
+        v[ny * width + nx] = 0;
+        left--;
+      }
+    }
+    v[i] = 0;
+    if (listener != null)
+      listener.reset(x, y, first % width, first / width);
+    return 1;
+  }
+}
@@ -0,0 +1,167 @@
+package blinkenlights;
+
+/**
+ * A {@link ValueGrid} that only stores what has been touched. A click does not visit its row and
+ * column; it just increments a counter for the row and a counter for the column. The value of a cell
+ * is the sum of its row counter, its column counter and a per-cell correction, and only non-zero
+ * corrections are stored. Corrections are needed for clicked cells (which are in both the clicked
+ * row and column, but are only incremented once) and for reset cells.
+ * <p>
+ * Creating a grid takes constant time and memory, whatever its size, and memory grows with the
+ * number of clicked rows, columns and cells. A reset scan only visits cells that can be non-zero:
+ * whole rows that have been clicked, and the clicked columns and corrected cells of the other rows.
+ */
+public class SparseGrid implements ValueGrid {
+
+  private final int width;
+  private final int height;
+  private final LongIntMap rows = new LongIntMap(); // Increments per row
+  private final LongIntMap columns = new LongIntMap(); // Increments per column
+  private final LongIntMap cells = new LongIntMap(); // Corrections per cell, by 1D index
+
+  /**
+   * Constructor
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   */
+  public SparseGrid(int width, int height) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    this.width = width;
+    this.height = height;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getValue(int x, int y) {
+    return rows.get(y) + columns.get(x) + cells.get(index(x, y));
+  }
+
+  /**
+   * Set the value of a cell
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @param value The new value
+   */
+  public void setValue(int x, int y, int value) {
+    cells.put(index(x, y), value - rows.get(y) - columns.get(x));
+  }
+
+  /**
+   * The number of stored counters and corrections, a measure of the memory in use
+   *
+   * @return int with the number of entries
+   */
+  public int getEntries() {
+    return rows.size() + columns.size() + cells.size();
+  }
+
+  @Override
+  public void click(int x, int y) {
+    rows.add(y, 1);
+    columns.add(x, 1);
+    cells.add(index(x, y), -1); // Counted in both the row and the column
+  }
+
+  @Override
+  public int scanResets(ResetListener listener) {
+    // Resets only ever lower values to zero, so the cells that can be four are known up front
+    long[] clickedRows = rows.sortedKeys();
+    long[] clickedColumns = columns.sortedKeys();
+    long[] corrected = cells.sortedKeys();
+
+    int pairs = 0;
+    int r = 0; // Next clicked row
+    int c = 0; // Next corrected cell
+    int y = nextRow(-1, clickedRows, r, corrected, c, clickedColumns.length > 0);
+    while (y < height) {
+      while (r < clickedRows.length && clickedRows[r] < y)
+        r++;
+      long rowStart = index(0, y);
+      while (c < corrected.length && corrected[c] < rowStart)
+        c++;
+
+      if (r < clickedRows.length && clickedRows[r] == y) {
+        // The whole row has been incremented
+        for (int x = 0; x < width; x++)
+          pairs += check(x, y, listener);
+      } else {
+        // Merge the clicked columns with the corrected cells in this row
+        int k = 0;
+        while (k < clickedColumns.length
+            || (c < corrected.length && corrected[c] < rowStart + width)) {
+          long fromColumn = k < clickedColumns.length ? clickedColumns[k] : Long.MAX_VALUE;
+          long fromCell = c < corrected.length && corrected[c] < rowStart + width
+              ? corrected[c] - rowStart : Long.MAX_VALUE;
+          long x = Math.min(fromColumn, fromCell);
+          if (fromColumn == x)
+            k++;
+          if (fromCell == x)
+            c++;
+          pairs += check((int) x, y, listener);
+        }
+      }
+      y = nextRow(y, clickedRows, r, corrected, c, clickedColumns.length > 0);
+    }
+    return pairs;
+  }
+
+  // The next row that can hold a non-zero value, or height if there is none
+  private int nextRow(int y, long[] clickedRows, int r, long[] corrected, int c,
+      boolean everyRow) {
+    if (everyRow)
+      return y + 1;
+    long next = height;
+    while (r < clickedRows.length && clickedRows[r] <= y)
+      r++;
+    if (r < clickedRows.length)
+      next = clickedRows[r];
+    long rowEnd = index(0, y + 1);
+    while (c < corrected.length && corrected[c] < rowEnd)
+      c++;
+    if (c < corrected.length)
+      next = Math.min(next, corrected[c] / width);
+    return (int) next;
+  }
+
+  /**
+   * Reset the cell if it has value four and a neighbour with value two, checking the neighbours in
+   * the Node order: left, right, up, down.
+   */
+  private int check(int x, int y, ResetListener listener) {
+    if (getValue(x, y) != 4)
+      return 0;
+    int ox = x;
+    int oy = y;
+    if (x > 0 && getValue(x - 1, y) == 2)
+      ox = x - 1;
+    else if (x < width - 1 && getValue(x + 1, y) == 2)
+      ox = x + 1;
+    else if (y > 0 && getValue(x, y - 1) == 2)
+      oy = y - 1;
+    else if (y < height - 1 && getValue(x, y + 1) == 2)
+      oy = y + 1;
+    else
+      return 0;
+    setValue(x, y, 0);
+    setValue(ox, oy, 0);
+    if (listener != null)
+      listener.reset(x, y, ox, oy);
+    return 1;
+  }
+
+  private long index(int x, int y) {
+    return (long) y * width + x;
+  }
+}
@@ -0,0 +1,96 @@
+package blinkenlights;
+
+/**
+ * SummaryPyramid class. Block sums of the values of a grid, at every power of two. Level 0 holds
+ * the values themselves, level 1 the sums of blocks of 2 x 2 cells, level 2 of 4 x 4 cells, and so
+ * on, up to a single block holding the whole grid. A zoomed out view reads one block per pixel
+ * from the level whose blocks are about the size of a pixel, so its cost depends on the number of
+ * pixels, not on the size of the grid.
+ * <p>
+ * A changed value is propagated to its block in every level, so keeping the pyramid up to date
+ * costs one addition per level per change. The levels together take a third more space than the
+ * values.
+ */
+public class SummaryPyramid {
+
+  private final int width;
+  private final int height;
+  private final int[] widths; // Number of blocks per row, per level
+  private final int[] heights; // Number of blocks per column, per level
+  private final long[][] sums; // Block sums per level, row-major
+
+  /**
+   * Constructor. All values start at zero.
+   *
+   * @param width The number of columns of the grid
+   * @param height The number of rows of the grid
+   */
+  public SummaryPyramid(int width, int height) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    this.width = width;
+    this.height = height;
+    int levels = 1;
+    while ((width - 1) >> (levels - 1) > 0 || (height - 1) >> (levels - 1) > 0)
+      levels++;
+    widths = new int[levels];
+    heights = new int[levels];
+    sums = new long[levels][];
+    for (int k = 0; k < levels; k++) {
+      widths[k] = ((width - 1) >> k) + 1;
+      heights[k] = ((height - 1) >> k) + 1;
+      sums[k] = new long[widths[k] * heights[k]];
+    }
+  }
+
+  /**
+   * The number of levels
+   *
+   * @return int with the number of levels, including level 0. The last level is a single block
+   */
+  public int getLevels() {
+    return sums.length;
+  }
+
+  /**
+   * Change the value of a cell
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @param value The new value
+   */
+  public void set(int x, int y, int value) {
+    long delta = value - sums[0][y * width + x];
+    if (delta == 0)
+      return;
+    for (int k = 0; k < sums.length; k++)
+      sums[k][(y >> k) * widths[k] + (x >> k)] += delta;
+  }
+
+  /**
+   * The sum of the values in a block
+   *
+   * @param level The level. 0 <= level < levels
+   * @param bx The x-coordinate of the block in its level
+   * @param by The y-coordinate of the block in its level
+   * @return long with the sum
+   */
+  public long getSum(int level, int bx, int by) {
+    return sums[level][by * widths[level] + bx];
+  }
+
+  /**
+   * The mean of the values in a block. Blocks at the right and top edges may be smaller.
+   *
+   * @param level The level. 0 <= level < levels
+   * @param bx The x-coordinate of the block in its level
+   * @param by The y-coordinate of the block in its level
+   * @return double with the mean value of the cells in the block
+   */
+  public double getMean(int level, int bx, int by) {
+    int size = 1 << level;
+    int columns = Math.min(size, width - bx * size);
+    int rows = Math.min(size, height - by * size);
+    return (double) sums[level][by * widths[level] + bx] / (columns * rows);
+  }
+}
@@ -0,0 +1,387 @@
+package blinkenlights;
+
+/**
+ * A {@link ValueGrid} that can be forked cheaply, to try out alternative clicks on the same board.
+ * The values are kept in square tiles of {@value #TILE} x {@value #TILE} cells, and the clicks still
+ * to come in a persistent heap, and both are shared between a grid and its forks until one of them
+ * changes them.
+ * <p>
+ * Every tile, every row of tiles and the directory of rows belongs to the grid that created it.
+ * A grid changes what it owns in place, and copies anything else first. Forking hands both grids
+ * new ownership, so it takes constant time, and afterwards each grid copies only the tiles it
+ * touches (together with the row of tiles and the directory above them). Untouched tiles stay
+ * shared, however many forks there are, and all-zero tiles are shared from the start. Shared tiles
+ * are never changed again, so forks may run side by side on different threads.
+ * <p>
+ * Clicks can be planned for a later time with {@link #schedule(long, int, int)}, and are applied by
+ * {@link #advance(long, ResetListener)}, in time order, with a reset scan after every distinct time.
+ */
+public class TiledGrid implements ValueGrid {
+
+  /** The width and height of a tile, in cells */
+  public static final int TILE = 16;
+  private static final int SHIFT = 4; // log2(TILE)
+  private static final int MASK = TILE - 1;
+
+  private final int width;
+  private final int height;
+  private final int tileColumns;
+  private final ResetRule rule;
+
+  private Object owner = new Object(); // Identifies what this grid may change in place
+  private TileRow[] directory; // Rows of tiles
+  private Object directoryOwner;
+  private Scheduled pending; // Leftist heap of planned clicks, never changed in place
+  private int pendingCount;
+  private long sequence; // Planned clicks at the same time are applied in the order planned
+
+  // Scratch space for the reset scan: three rows of values, and the candidates of the middle row
+  private int[] window;
+  private int[] flags;
+  private final Translator translator = new Translator();
+
+  // A tile of values
+  private static final class Tile {
+    private final int[] values;
+    private final Object owner;
+
+    private Tile(int[] values, Object owner) {
+      this.values = values;
+      this.owner = owner;
+    }
+  }
+
+  // A row of tiles
+  private static final class TileRow {
+    private final Tile[] tiles;
+    private final Object owner;
+
+    private TileRow(Tile[] tiles, Object owner) {
+      this.tiles = tiles;
+      this.owner = owner;
+    }
+  }
+
+  // A planned click: a node of an immutable leftist heap, ordered by time, then sequence
+  private static final class Scheduled {
+    private final long time;
+    private final long sequence;
+    private final int x;
+    private final int y;
+    private final Scheduled left;
+    private final Scheduled right;
+    private final int rank; // Length of the right spine
+
+    private Scheduled(long time, long sequence, int x, int y, Scheduled left, Scheduled right) {
+      this.time = time;
+      this.sequence = sequence;
+      this.x = x;
+      this.y = y;
+      // Keep the shorter spine on the right
+      if (rank(left) < rank(right)) {
+        this.left = right;
+        this.right = left;
+      } else {
+        this.left = left;
+        this.right = right;
+      }
+      rank = rank(this.right) + 1;
+    }
+
+    private static int rank(Scheduled s) {
+      return s == null ? 0 : s.rank;
+    }
+
+    private boolean before(Scheduled s) {
+      return time < s.time || time == s.time && sequence < s.sequence;
+    }
+
+    // Merge two heaps, copying only the right spines. O(log n)
+    private static Scheduled merge(Scheduled a, Scheduled b) {
+      if (a == null)
+        return b;
+      if (b == null)
+        return a;
+      if (b.before(a)) {
+        Scheduled t = a;
+        a = b;
+        b = t;
+      }
+      return new Scheduled(a.time, a.sequence, a.x, a.y, a.left, merge(a.right, b));
+    }
+  }
+
+  // Reports resets found in the scan window in grid coordinates
+  private static final class Translator implements ResetListener {
+    private ResetListener listener;
+    private int top; // The grid row of the first window row
+
+    @Override
+    public void reset(int x, int y, int otherX, int otherY) {
+      if (listener != null)
+        listener.reset(x, y + top, otherX, otherY + top);
+    }
+  }
+
+  /**
+   * Constructor, for the {@link ResetRule#DEFAULT default rule}
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   */
+  public TiledGrid(int width, int height) {
+    this(width, height, ResetRule.DEFAULT);
+  }
+
+  /**
+   * Constructor. All tiles start out as one shared tile of zeros.
+   *
+   * @param width The number of columns
+   * @param height The number of rows
+   * @param rule The rule deciding which cells are reset together
+   */
+  public TiledGrid(int width, int height, ResetRule rule) {
+    if (width < 1 || height < 1)
+      throw new IllegalArgumentException("width and height must be positive");
+    this.width = width;
+    this.height = height;
+    this.rule = rule;
+    tileColumns = (width + MASK) >> SHIFT;
+    int tileRows = (height + MASK) >> SHIFT;
+
+    Tile zeros = new Tile(new int[TILE * TILE], null);
+    Tile[] zeroRow = new Tile[tileColumns];
+    for (int i = 0; i < tileColumns; i++)
+      zeroRow[i] = zeros;
+    TileRow shared = new TileRow(zeroRow, null);
+    directory = new TileRow[tileRows];
+    for (int i = 0; i < tileRows; i++)
+      directory[i] = shared;
+  }
+
+  // A fork: shares everything with the source, and owns nothing yet
+  private TiledGrid(TiledGrid source) {
+    width = source.width;
+    height = source.height;
+    rule = source.rule;
+    tileColumns = source.tileColumns;
+    directory = source.directory;
+    pending = source.pending;
+    pendingCount = source.pendingCount;
+    sequence = source.sequence;
+  }
+
+  /**
+   * Fork this grid. Takes constant time: the fork shares all tiles and planned clicks with this
+   * grid, and from now on each of the two copies what it changes.
+   * <p>
+   * Must not run at the same time as a change to this grid. The fork and this grid may then be
+   * used on different threads.
+   *
+   * @return The new grid, with the same values and planned clicks
+   */
+  public TiledGrid fork() {
+    owner = new Object(); // This grid no longer owns what it shares with the fork
+    return new TiledGrid(this);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getValue(int x, int y) {
+    return directory[y >> SHIFT].tiles[x >> SHIFT].values[(y & MASK) << SHIFT | (x & MASK)];
+  }
+
+  /**
+   * Set the value of a cell
+   *
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @param value The new value
+   */
+  public void setValue(int x, int y, int value) {
+    if (getValue(x, y) != value)
+      writable(x >> SHIFT, y >> SHIFT)[(y & MASK) << SHIFT | (x & MASK)] = value;
+  }
+
+  // The values of a tile, copying the tile and the path to it first if this grid does not own them
+  private int[] writable(int tx, int ty) {
+    if (directoryOwner != owner) {
+      directory = directory.clone();
+      directoryOwner = owner;
+    }
+    TileRow row = directory[ty];
+    if (row.owner != owner) {
+      row = new TileRow(row.tiles.clone(), owner);
+      directory[ty] = row;
+    }
+    Tile tile = row.tiles[tx];
+    if (tile.owner != owner) {
+      tile = new Tile(tile.values.clone(), owner);
+      row.tiles[tx] = tile;
+    }
+    return tile.values;
+  }
+
+  @Override
+  public void click(int x, int y) {
+    // The row, a tile at a time
+    int ty = y >> SHIFT;
+    int base = (y & MASK) << SHIFT;
+    for (int tx = 0; tx < tileColumns; tx++) {
+      int[] values = writable(tx, ty);
+      int cells = Math.min(TILE, width - (tx << SHIFT));
+      for (int i = base; i < base + cells; i++)
+        values[i]++;
+    }
+    // The column, apart from the clicked cell
+    int tx = x >> SHIFT;
+    int column = x & MASK;
+    for (int t = 0; t << SHIFT < height; t++) {
+      int[] values = writable(tx, t);
+      int rows = Math.min(TILE, height - (t << SHIFT));
+      for (int r = 0; r < rows; r++)
+        if ((t << SHIFT) + r != y)
+          values[r << SHIFT | column]++;
+    }
+  }
+
+  /**
+   * Scan for resets. The rows are copied into a window of three rows, so the candidates are found
+   * by the same branch-free {@link ResetScanner} as {@link ArrayGrid} uses. Only the cells that are
+   * actually reset are written back, so a scan without resets copies no tiles.
+   */
+  @Override
+  public int scanResets(ResetListener listener) {
+    if (window == null) {
+      window = new int[3 * width];
+      flags = new int[width];
+    }
+    translator.listener = listener;
+    int resets = 0;
+    for (int y = 0; y < height; y++) {
+      int top = Math.max(0, y - 1);
+      int rows = Math.min(height, y + 2) - top;
+      for (int r = 0; r < rows; r++)
+        copyRow(top + r, window, r * width);
+      int local = y - top;
+      if (ResetScanner.candidates(window, width, rows, local, flags, rule) == 0)
+        continue;
+      translator.top = top;
+      int found = 0;
+      for (int x = 0; x < width; x++)
+        if (flags[x] != 0)
+          found += ResetScanner.resolve(window, width, rows, x, local, rule, translator);
+      if (found == 0)
+        continue;
+      resets += found;
+      for (int r = 0; r < rows; r++)
+        for (int x = 0; x < width; x++)
+          setValue(x, top + r, window[r * width + x]);
+    }
+    return resets;
+  }
+
+  // Copy a row of values, a tile at a time
+  private void copyRow(int y, int[] target, int offset) {
+    Tile[] tiles = directory[y >> SHIFT].tiles;
+    int base = (y & MASK) << SHIFT;
+    for (int tx = 0; tx < tileColumns; tx++) {
+      int cells = Math.min(TILE, width - (tx << SHIFT));
+      System.arraycopy(tiles[tx].values, base, target, offset + (tx << SHIFT), cells);
+    }
+  }
+
+  /**
+   * Plan a click for a later time. Takes O(log n) for n planned clicks, and copies nothing that a
+   * fork shares.
+   *
+   * @param time The time to apply the click at
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   */
+  public void schedule(long time, int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height)
+      throw new IndexOutOfBoundsException("[" + x + ", " + y + "] is outside the grid");
+    pending = Scheduled.merge(pending, new Scheduled(time, sequence++, x, y, null, null));
+    pendingCount++;
+  }
+
+  /**
+   * Apply the planned clicks up to and including a time. The clicks of one time are applied
+   * together, followed by a reset scan.
+   *
+   * @param time The time to advance to
+   * @param listener Informed of every reset pair. May be null.
+   * @return The number of resets
+   */
+  public int advance(long time, ResetListener listener) {
+    int resets = 0;
+    while (pending != null && pending.time <= time) {
+      long now = pending.time;
+      while (pending != null && pending.time == now) {
+        click(pending.x, pending.y);
+        pending = Scheduled.merge(pending.left, pending.right);
+        pendingCount--;
+      }
+      resets += scanResets(listener);
+    }
+    return resets;
+  }
+
+  /**
+   * The number of planned clicks not yet applied
+   *
+   * @return int with the number of clicks
+   */
+  public int getPending() {
+    return pendingCount;
+  }
+
+  /**
+   * The time of the next planned click
+   *
+   * @return long with the time, or Long.MAX_VALUE if no clicks are planned
+   */
+  public long getNextTime() {
+    return pending == null ? Long.MAX_VALUE : pending.time;
+  }
+
+  /**
+   * The number of cells whose values differ from another grid of the same size. Tiles the two grids
+   * still share are skipped, so comparing a grid with a fork costs time in the number of tiles
+   * either of them has touched.
+   *
+   * @param other The other grid
+   * @return int with the number of different cells
+   */
+  public int countDifferences(TiledGrid other) {
+    if (other.width != width || other.height != height)
+      throw new IllegalArgumentException("grids differ in size");
+    int differences = 0;
+    for (int ty = 0; ty < directory.length; ty++) {
+      TileRow a = directory[ty];
+      TileRow b = other.directory[ty];
+      if (a == b)
+        continue;
+      for (int tx = 0; tx < tileColumns; tx++) {
+        int[] va = a.tiles[tx].values;
+        int[] vb = b.tiles[tx].values;
+        if (va == vb)
+          continue;
+        for (int i = 0; i < va.length; i++) // Cells outside the grid are zero in both
+          if (va[i] != vb[i])
+            differences++;
+      }
+    }
+    return differences;
+  }
+}
@@ -0,0 +1,134 @@
+package blinkenlights;
+
+/**
+ * Tracing class. Emits Java Flight Recorder events from the simulation: steps, click propagation,
+ * resets and frames, with their durations. Start a recording with
+ * <tt>-XX:StartFlightRecording</tt> or <tt>jcmd &lt;pid&gt; JFR.start</tt>, and the events show up
+ * under <i>Blinkenlights</i> in JDK Mission Control, or with <tt>jfr print --categories
+ * Blinkenlights</tt>.
+ * <p>
+ * On a JVM without JFR, {@link FlightEvents} is never loaded, and every method returns at once.
+ * With JFR but without a recording, a begin method costs a check of a flag, returns null and
+ * allocates nothing; the callers then skip their timing. The handles are plain objects, so callers
+ * never refer to a JFR type.
+ */
+final class Tracing {
+
+  /** Whether this JVM has JFR */
+  static final boolean AVAILABLE = available();
+
+  private Tracing() {}
+
+  private static boolean available() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Start timing a step
+   *
+   * @return A handle for {@link #endStep(Object, int, long, int)}, or null if not recording
+   */
+  static Object beginStep() {
+    return AVAILABLE ? FlightEvents.beginStep() : null;
+  }
+
+  /**
+   * Finish timing a step
+   *
+   * @param step The handle of {@link #beginStep()}. Ignored if null
+   * @param clicks The clicks taken from the inbox
+   * @param events The events handled
+   * @param pending The events left in the queue
+   */
+  static void endStep(Object step, int clicks, long events, int pending) {
+    if (step != null)
+      FlightEvents.endStep(step, clicks, events, pending);
+  }
+
+  /**
+   * Start timing the propagation of a click, or a batch of clicks
+   *
+   * @return A handle for {@link #endClick(Object, int, int, int, long)}, or null if not recording
+   */
+  static Object beginClick() {
+    return AVAILABLE ? FlightEvents.beginClick() : null;
+  }
+
+  /**
+   * Finish timing the propagation of a click
+   *
+   * @param click The handle of {@link #beginClick()}. Ignored if null
+   * @param originX The clicked column, or -1 for a batch
+   * @param originY The clicked row, or -1 for a batch
+   * @param clicks The number of clicks
+   * @param fanOut The number of nodes whose value changed
+   */
+  static void endClick(Object click, int originX, int originY, int clicks, long fanOut) {
+    if (click != null)
+      FlightEvents.endClick(click, originX, originY, clicks, fanOut);
+  }
+
+  /**
+   * Record a reset
+   *
+   * @param x The x-coordinate of the node
+   * @param y The y-coordinate of the node
+   * @param otherX The x-coordinate of the neighbour reset with it
+   * @param otherY The y-coordinate of the neighbour reset with it
+   */
+  static void reset(int x, int y, int otherX, int otherY) {
+    if (AVAILABLE)
+      FlightEvents.reset(x, y, otherX, otherY);
+  }
+
+  /**
+   * Start timing a frame
+   *
+   * @return A handle for {@link #endFrame(Object, long, long, long, int, int, int)}, or null if
+   *         not recording
+   */
+  static Object beginFrame() {
+    return AVAILABLE ? FlightEvents.beginFrame() : null;
+  }
+
+  /**
+   * Finish timing a frame
+   *
+   * @param frame The handle of {@link #beginFrame()}. Ignored if null
+   * @param drawing Nanoseconds spent drawing
+   * @param scan Nanoseconds spent scanning for resets
+   * @param listeners Nanoseconds spent in the frame listeners
+   * @param changed The number of changed nodes
+   * @param resets The number of resets
+   * @param events The events handled since the previous frame
+   */
+  static void endFrame(Object frame, long drawing, long scan, long listeners, int changed,
+      int resets, int events) {
+    if (frame != null)
+      FlightEvents.endFrame(frame, drawing, scan, listeners, changed, resets, events);
+  }
+
+  /**
+   * Start timing the copy of a drawing to the screen
+   *
+   * @return A handle for {@link #endShow(Object)}, or null if not recording
+   */
+  static Object beginShow() {
+    return AVAILABLE ? FlightEvents.beginShow() : null;
+  }
+
+  /**
+   * Finish timing the copy of a drawing to the screen
+   *
+   * @param show The handle of {@link #beginShow()}. Ignored if null
+   */
+  static void endShow(Object show) {
+    if (show != null)
+      FlightEvents.endShow(show);
+  }
+}
@@ -0,0 +1,50 @@
+package blinkenlights;
+
+/**
+ * A grid of values without any Node objects. Implementations follow the same rules as the Node
+ * based grid in {@link Blinkenlights}: a click increments the value of the clicked cell, as well as
+ * the values of all the cells in the same row and column. A reset scan visits the cells in row
+ * order (the order of the one-dimensional grid) and resets every cell of value four together with
+ * its first neighbour (left, right, up, down) of value two.
+ */
+public interface ValueGrid {
+
+  /**
+   * The width of the grid
+   * 
+   * @return int with the number of columns
+   */
+  int getWidth();
+
+  /**
+   * The height of the grid
+   * 
+   * @return int with the number of rows
+   */
+  int getHeight();
+
+  /**
+   * The value of a cell
+   * 
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   * @return int with the current value
+   */
+  int getValue(int x, int y);
+
+  /**
+   * Click a cell, incrementing its row and column
+   * 
+   * @param x The x-coordinate of the cell. 0 <= x < width
+   * @param y The y-coordinate of the cell. 0 <= y < height
+   */
+  void click(int x, int y);
+
+  /**
+   * Reset all neighbouring pairs of values four and two
+   * 
+   * @param listener Informed of every reset pair, in scan order. May be null.
+   * @return The number of pairs that have been reset
+   */
+  int scanResets(ResetListener listener);
+}
@@ -0,0 +1,230 @@
+package blinkenlights;
+
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.BitSet;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Viewport class. The part of a grid that is shown in the JFrame, with zoom (mouse wheel) and pan
+ * (drag with the right mouse button). Only the visible nodes are drawn, and their values only when
+ * there is room for the text.
+ * <p>
+ * When nodes become smaller than {@value #HEATMAP_PIXELS} pixel, they are no longer drawn at all.
+ * Instead, every pixel is coloured by the mean value of the cells under it, read from a
+ * {@link SummaryPyramid}. Either way, the cost of a frame depends on the size of the canvas rather
+ * than the size of the grid.
+ * <p>
+ * Mouse events arrive on the Swing thread, and drawing happens on the simulation thread, so the
+ * view itself is guarded by the viewport.
+ */
+public class Viewport extends MouseAdapter {
+
+  private static final double HEATMAP_PIXELS = 1.0; // Below this node size, draw a heatmap
+  private static final double LABEL_PIXELS = 16.0; // From this node size on, draw the values
+  private static final int MIN_NODES = 4; // The fewest nodes across when fully zoomed in
+  private static final double ZOOM_STEP = 1.25; // Zoom factor per notch of the mouse wheel
+  private static final int BACKGROUND = 0xffffff;
+
+  private final Blinkenlights grid;
+  private final double extentMin; // Drawing coordinates of the whole grid
+  private final double extentMax;
+  private final double nodeSize; // Distance between two nodes, in drawing coordinates
+  private final SummaryPyramid pyramid;
+
+  // The visible part, in drawing coordinates. Guarded by this.
+  private double xmin;
+  private double xmax;
+  private double ymin;
+  private double ymax;
+
+  // Pan state, only used on the Swing thread
+  private int dragX;
+  private int dragY;
+
+  // Heatmap buffers, only used on the simulation thread
+  private BufferedImage heatmap;
+  private int[] columnCells = new int[0];
+  private int[] rowCells = new int[0];
+
+  /**
+   * Constructor. Shows the whole grid.
+   *
+   * @param grid The grid
+   * @param extentMin The lowest drawing coordinate of the grid, in both directions
+   * @param extentMax The highest drawing coordinate of the grid, in both directions
+   */
+  public Viewport(Blinkenlights grid, double extentMin, double extentMax) {
+    this.grid = grid;
+    this.extentMin = extentMin;
+    this.extentMax = extentMax;
+    nodeSize = (extentMax - extentMin) / Math.max(grid.getWidth(), grid.getHeight());
+    pyramid = new SummaryPyramid(grid.getWidth(), grid.getHeight());
+    xmin = ymin = extentMin;
+    xmax = ymax = extentMax;
+  }
+
+  /**
+   * Bring the summaries up to date with changed nodes
+   *
+   * @param changed The changed nodes, by one-dimensional index (y * width + x)
+   */
+  public void update(BitSet changed) {
+    int width = grid.getWidth();
+    for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+      int x = i % width;
+      int y = i / width;
+      pyramid.set(x, y, grid.getValue(x, y));
+    }
+  }
+
+  /**
+   * Draw the visible part of the grid, and show it
+   */
+  public void draw() {
+    double x0, x1, y0, y1;
+    synchronized (this) {
+      x0 = xmin;
+      x1 = xmax;
+      y0 = ymin;
+      y1 = ymax;
+    }
+    Visual.setXscale(x0, x1);
+    Visual.setYscale(y0, y1);
+    Visual.clear();
+    double nodePixels = Visual.getCanvasWidth() * nodeSize / (x1 - x0);
+    if (nodePixels < HEATMAP_PIXELS)
+      drawHeatmap(x0, x1, y0, y1, nodePixels);
+    else
+      drawNodes(x0, x1, y0, y1, nodePixels >= LABEL_PIXELS);
+    Visual.show(0);
+  }
+
+  private void drawNodes(double x0, double x1, double y0, double y1, boolean labels) {
+    int first = Math.max(0, (int) Math.floor((x0 - extentMin) / nodeSize));
+    int last = Math.min(grid.getWidth() - 1, (int) Math.floor((x1 - extentMin) / nodeSize));
+    int bottom = Math.max(0, (int) Math.floor((y0 - extentMin) / nodeSize));
+    int top = Math.min(grid.getHeight() - 1, (int) Math.floor((y1 - extentMin) / nodeSize));
+    for (int y = bottom; y <= top; y++)
+      for (int x = first; x <= last; x++)
+        grid.getNode(x, y).draw(labels);
+  }
+
+  private void drawHeatmap(double x0, double x1, double y0, double y1, double nodePixels) {
+    int w = Visual.getCanvasWidth();
+    int h = Visual.getCanvasHeight();
+    if (heatmap == null || heatmap.getWidth() != w || heatmap.getHeight() != h) {
+      heatmap = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+      columnCells = new int[w];
+      rowCells = new int[h];
+    }
+    int[] pixels = ((DataBufferInt) heatmap.getRaster().getDataBuffer()).getData();
+
+    // The level whose blocks are no larger than a pixel
+    int level = 0;
+    while (level < pyramid.getLevels() - 1 && (2 << level) * nodePixels <= 1.0)
+      level++;
+
+    // The cell under the centre of every column and row of pixels, or -1 outside the grid
+    for (int px = 0; px < w; px++)
+      columnCells[px] = cell(x0 + (px + 0.5) * (x1 - x0) / w, grid.getWidth());
+    for (int py = 0; py < h; py++)
+      rowCells[py] = cell(y1 - (py + 0.5) * (y1 - y0) / h, grid.getHeight());
+
+    for (int py = 0; py < h; py++) {
+      int gy = rowCells[py];
+      for (int px = 0; px < w; px++) {
+        int gx = columnCells[px];
+        if (gx < 0 || gy < 0)
+          pixels[py * w + px] = BACKGROUND;
+        else
+          pixels[py * w + px] = heat(pyramid.getMean(level, gx >> level, gy >> level));
+      }
+    }
+    Visual.image(heatmap);
+  }
+
+  // The cell at a drawing coordinate, or -1 if outside the grid
+  private int cell(double u, int cells) {
+    double c = Math.floor((u - extentMin) / nodeSize);
+    return c < 0 || c >= cells ? -1 : (int) c;
+  }
+
+  // White for zero, darkening towards black for higher values
+  private static int heat(double mean) {
+    int grey = 255 - (int) (255 * mean / (mean + 4));
+    return grey << 16 | grey << 8 | grey;
+  }
+
+  /**
+   * Zoom in or out around a point
+   *
+   * @param factor The factor to multiply the visible size by. Below 1 zooms in
+   * @param x The x drawing coordinate that stays in place
+   * @param y The y drawing coordinate that stays in place
+   */
+  public synchronized void zoom(double factor, double x, double y) {
+    double size = xmax - xmin;
+    double full = extentMax - extentMin;
+    double newSize = Math.max(MIN_NODES * nodeSize, Math.min(full, size * factor));
+    double f = newSize / size;
+    xmin = x - (x - xmin) * f;
+    ymin = y - (y - ymin) * f;
+    xmax = xmin + newSize;
+    ymax = ymin + newSize;
+    clamp();
+  }
+
+  /**
+   * Move the visible part
+   *
+   * @param dx The distance to move right, in drawing coordinates
+   * @param dy The distance to move up, in drawing coordinates
+   */
+  public synchronized void pan(double dx, double dy) {
+    xmin += dx;
+    xmax += dx;
+    ymin += dy;
+    ymax += dy;
+    clamp();
+  }
+
+  // Keep the visible part within the grid
+  private void clamp() {
+    double shiftX = Math.max(0, extentMin - xmin) - Math.max(0, xmax - extentMax);
+    double shiftY = Math.max(0, extentMin - ymin) - Math.max(0, ymax - extentMax);
+    xmin += shiftX;
+    xmax += shiftX;
+    ymin += shiftY;
+    ymax += shiftY;
+  }
+
+  @Override
+  public void mouseWheelMoved(MouseWheelEvent e) {
+    zoom(Math.pow(ZOOM_STEP, e.getPreciseWheelRotation()), Visual.userX(e.getX()),
+        Visual.userY(e.getY()));
+    grid.requestFrame();
+  }
+
+  @Override
+  public void mousePressed(MouseEvent e) {
+    dragX = e.getX();
+    dragY = e.getY();
+  }
+
+  @Override
+  public void mouseDragged(MouseEvent e) {
+    if (!SwingUtilities.isRightMouseButton(e))
+      return;
+    double dx = Visual.userX(dragX) - Visual.userX(e.getX());
+    double dy = Visual.userY(dragY) - Visual.userY(e.getY());
+    dragX = e.getX();
+    dragY = e.getY();
+    pan(dx, dy);
+    grid.requestFrame();
+  }
+}
@@ -7,6 +7,8 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelListener;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 
@@ -28,6 +30,7 @@ public class Visual {
   // Double buffered graphics
   private static BufferedImage offscreenImg, onscreenImg;
   private static Graphics2D offscreen, onscreen;
+  private static final Ellipse2D.Double ellipse = new Ellipse2D.Double(); // Reused by circle()
 
   // Default canvas size
   private static final int DEFAULT_SIZE = 800;
@@ -102,8 +105,9 @@ public class Visual {
     if (frame != null)
       frame.setVisible(false);
     frame = new JFrame();
-    offscreenImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    onscreenImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    // The canvas is opaque, so no alpha channel
+    offscreenImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    onscreenImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
     offscreen = offscreenImg.createGraphics();
     onscreen = onscreenImg.createGraphics();
     setXscale();
@@ -138,6 +142,32 @@ public class Visual {
     draw.addMouseListener(ml);
   }
 
+  public static void addMotionListener(MouseMotionListener ml) {
+    draw.addMouseMotionListener(ml);
+  }
+
+  public static void addWheelListener(MouseWheelListener ml) {
+    draw.addMouseWheelListener(ml);
+  }
+
+  /**
+   * The width of the canvas
+   * 
+   * @return int with the width in pixels
+   */
+  public static int getCanvasWidth() {
+    return width;
+  }
+
+  /**
+   * The height of the canvas
+   * 
+   * @return int with the height in pixels
+   */
+  public static int getCanvasHeight() {
+    return height;
+  }
+
   /**
    * Set the x-scale to be the default (between 0.0 and 1.0).
    */
@@ -262,8 +292,10 @@ public class Visual {
   private static void draw() {
     if (defer)
       return;
+    Object trace = Tracing.beginShow();
     onscreen.drawImage(offscreenImg, 0, 0, null);
     frame.repaint();
+    Tracing.endShow(trace);
   }
 
   /**
@@ -283,8 +315,10 @@ public class Visual {
     double hs = factorY(2 * r);
     if (ws <= 1 && hs <= 1)
       pixel(x, y);
-    else
-      offscreen.fill(new Ellipse2D.Double(xs - ws / 2, ys - hs / 2, ws, hs));
+    else {
+      ellipse.setFrame(xs - ws / 2, ys - hs / 2, ws, hs);
+      offscreen.fill(ellipse);
+    }
     draw();
   }
 
@@ -306,6 +340,17 @@ public class Visual {
     draw();
   }
 
+  /**
+   * Draw an image over the whole canvas, with its top left corner in the top left corner of the
+   * canvas. The image is not scaled.
+   * 
+   * @param img the image
+   */
+  public static void image(BufferedImage img) {
+    offscreen.drawImage(img, 0, 0, null);
+    draw();
+  }
+
   // helper functions that scale from user coordinates to screen coordinates and back
   private static double scaleX(double x) {
     return width * (x - xmin) / (xmax - xmin);
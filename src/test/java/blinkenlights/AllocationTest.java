@@ -0,0 +1,125 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for the allocation rate of the simulation hot path. A headless workload runs until
+ * the pools and the JIT have warmed up, and then the bytes allocated by the simulation thread are
+ * measured and held against a budget per event and per frame, each on its own, so neither can hide
+ * the other. A change that makes the hot path allocate again fails the build.
+ * <p>
+ * Needs a JVM that counts allocated bytes per thread (HotSpot and its derivatives); the tests are
+ * skipped elsewhere.
+ */
+@RunWith(JUnit4.class)
+public class AllocationTest {
+
+    private static final long MS = 1000000L;
+    private static final int SIZE = 12;
+    private static final int WARM_UP = 2000; // Steps
+    private static final int MEASURED = 2000; // Steps
+
+    // Budgets, in bytes. A frame may allocate the published list of hottest cells.
+    private static final long EVENT_BUDGET = 16;
+    private static final long FRAME_BUDGET = 1024;
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    // The bytes a pair of calls to the counter allocates itself
+    private static long overhead(com.sun.management.ThreadMXBean threads, long thread) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            min = Math.min(min, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        return min;
+    }
+
+    private void measure(boolean coalesce, boolean batch) {
+        com.sun.management.ThreadMXBean threads = threads();
+        long thread = Thread.currentThread().getId();
+
+        Blinkenlights board = new Blinkenlights(SIZE, true);
+        board.setCoalesceClicks(coalesce);
+        board.setBatchDispatch(batch);
+        board.start(0);
+        Random r = new Random(44);
+        int[] xs = new int[WARM_UP + MEASURED];
+        int[] ys = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = r.nextInt(SIZE);
+            ys[i] = r.nextInt(SIZE);
+        }
+
+        // A click every 7 steps of a millisecond. Most steps then either handle events or draw a
+        // frame, and each kind is held against its own budget; steps that do both are left out.
+        long time = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            if (i % 7 == 0)
+                board.click(xs[i], ys[i]);
+            time += MS;
+            board.step(time);
+        }
+
+        long overhead = overhead(threads, thread);
+        long eventBytes = 0;
+        long events = 0;
+        long frameBytes = 0;
+        long frames = 0;
+        for (int i = WARM_UP; i < xs.length; i++) {
+            long handled = board.getHandledEvents();
+            long drawn = board.getFramePacer().getFrames();
+            long before = threads.getThreadAllocatedBytes(thread);
+            if (i % 7 == 0)
+                board.click(xs[i], ys[i]);
+            time += MS;
+            board.step(time);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+            handled = board.getHandledEvents() - handled;
+            drawn = board.getFramePacer().getFrames() - drawn;
+            if (drawn == 0) {
+                eventBytes += allocated;
+                events += handled;
+            } else if (handled == 0) {
+                frameBytes += allocated;
+                frames += drawn;
+            }
+        }
+
+        String report = String.format("%d bytes for %d events, %d bytes for %d frames", eventBytes,
+                events, frameBytes, frames);
+        assertTrue(report, events > MEASURED / 7 && frames > MEASURED / 100);
+        assertTrue(report, eventBytes <= events * EVENT_BUDGET);
+        assertTrue(report, frameBytes <= frames * FRAME_BUDGET);
+    }
+
+    @Test
+    public void testCoalescedClicks() {
+        measure(true, false);
+    }
+
+    @Test
+    public void testSingleClicks() {
+        measure(false, false);
+    }
+
+    @Test
+    public void testBatchDispatch() {
+        measure(false, true);
+    }
+}
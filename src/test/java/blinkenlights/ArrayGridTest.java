@@ -0,0 +1,112 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.EventFeed.Kind;
+import blinkenlights.EventFeed.OverflowPolicy;
+import blinkenlights.EventFeed.Record;
+import blinkenlights.EventFeed.Subscription;
+
+/**
+ * Unit tests for ArrayGrid and the ResetScanner, against the Node based grid
+ */
+@RunWith(JUnit4.class)
+public class ArrayGridTest {
+
+    private static final long MS = 1000000L;
+
+    private static List<String> scan(int[] values, int width, int height) {
+        final List<String> resets = new ArrayList<>();
+        ResetScanner.scan(values, width, height, new int[width], new ResetListener() {
+            @Override
+            public void reset(int x, int y, int otherX, int otherY) {
+                resets.add(x + "," + y + "-" + otherX + "," + otherY);
+            }
+        });
+        return resets;
+    }
+
+    @Test
+    public void testNeighbourOrder() {
+        // Left before right
+        int[] row = { 2, 4, 2 };
+        assertEquals(Arrays.asList("1,0-0,0"), scan(row, 3, 1));
+        assertArrayEquals(new int[] { 0, 0, 2 }, row);
+
+        // Right before the row above, and the row above before the row below
+        int[] column = { 0, 2, 0, 0, 4, 2, 0, 2, 0 };
+        assertEquals(Arrays.asList("1,1-2,1"), scan(column, 3, 3));
+        column = new int[] { 0, 2, 0, 0, 4, 0, 0, 2, 0 };
+        assertEquals(Arrays.asList("1,1-1,0"), scan(column, 3, 3));
+    }
+
+    @Test
+    public void testRowOrder() {
+        // [4, 2, 4]: the first four takes the two, and the second one is left without a partner
+        int[] v = { 4, 2, 4 };
+        assertEquals(Arrays.asList("0,0-1,0"), scan(v, 3, 1));
+        assertArrayEquals(new int[] { 0, 0, 4 }, v);
+
+        // Rows 0 and 1:
+        // [0, 4]
+        // [4, 2]
+        // [1, 0] takes [1, 1] first, so [0, 1] is left alone
+        v = new int[] { 0, 4, 4, 2 };
+        assertEquals(Arrays.asList("1,0-1,1"), scan(v, 2, 2));
+        assertArrayEquals(new int[] { 0, 0, 4, 0 }, v);
+    }
+
+    @Test
+    public void testMatchesNodeGrid() {
+        int total = 0;
+        for (int size = 1; size <= 7; size += 3)
+            for (long seed = 0; seed < 3; seed++) {
+                Blinkenlights board = new Blinkenlights(size, true);
+                Subscription feed = board.getFeed().subscribe(1 << 12, OverflowPolicy.BLOCK);
+                board.start(0);
+                ArrayGrid grid = new ArrayGrid(size, size);
+                Random r = new Random(seed);
+                long time = 0;
+                for (int click = 0; click < 60; click++) {
+                    int x = r.nextInt(size);
+                    int y = r.nextInt(size);
+                    board.click(x, y);
+                    board.step(time);
+                    board.step(time + 80 * MS);
+                    time += 90 * MS;
+                    List<String> expected = new ArrayList<>();
+                    Record rec;
+                    while ((rec = feed.poll()) != null)
+                        if (rec.getKind() == Kind.RESET)
+                            expected.add(rec.getX() + "," + rec.getY() + "-" + rec.getOtherX()
+                                    + "," + rec.getOtherY());
+
+                    grid.click(x, y);
+                    final List<String> resets = new ArrayList<>();
+                    grid.scanResets(new ResetListener() {
+                        @Override
+                        public void reset(int x, int y, int otherX, int otherY) {
+                            resets.add(x + "," + y + "-" + otherX + "," + otherY);
+                        }
+                    });
+                    assertEquals(expected, resets);
+                    total += resets.size();
+                    for (int j = 0; j < size; j++)
+                        for (int i = 0; i < size; i++)
+                            assertEquals(board.getValue(i, j), grid.getValue(i, j));
+                }
+            }
+        assertTrue(total > 0);
+    }
+}
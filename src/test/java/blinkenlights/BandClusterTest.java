@@ -0,0 +1,92 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for BandCluster, and the GridBands it connects
+ */
+@RunWith(JUnit4.class)
+public class BandClusterTest {
+
+    private static final int CLICK_BYTES = 9; // Type, x and y
+    private static final int ROW_BYTES = 1 + 4 * 3; // Type, and a row of three cells
+
+    private static List<String> scan(ValueGrid grid) {
+        final List<String> resets = new ArrayList<>();
+        grid.scanResets(new ResetListener() {
+            @Override
+            public void reset(int x, int y, int otherX, int otherY) {
+                resets.add(x + "," + y + "-" + otherX + "," + otherY);
+            }
+        });
+        return resets;
+    }
+
+    @Test
+    public void testOwners() {
+        assertEquals(0, GridBand.firstRow(0, 3, 9));
+        assertEquals(3, GridBand.firstRow(1, 3, 9));
+        assertEquals(9, GridBand.firstRow(3, 3, 9));
+        for (int y = 0; y < 7; y++)
+            assertEquals(y, GridBand.owner(y, 7, 7));
+        assertEquals(1, GridBand.owner(3, 2, 5)); // Bands of 2 and 3 rows
+        assertEquals(0, GridBand.owner(1, 2, 5));
+    }
+
+    @Test
+    public void testResetAcrossSeam() {
+        // Bands of rows 0-1 and 2-3. The clicks leave, from the top row down:
+        // [2, 3, 1]
+        // [2, 2, 0]
+        // [4, 3, 3]
+        // [2, 2, 0]
+        // so [0, 2] in band 1 pairs with [0, 1] in band 0, its upper halo.
+        BandCluster cluster = new BandCluster(3, 4, 2);
+        ArrayGrid reference = new ArrayGrid(3, 4);
+        LoopbackTransport transport = cluster.getTransport();
+        int[][] clicks = { { 0, 0 }, { 0, 2 }, { 1, 2 }, { 1, 2 } };
+        for (int[] c : clicks) {
+            cluster.click(c[0], c[1]);
+            reference.click(c[0], c[1]);
+        }
+        // A click on band 0 sends band 1 its column; a click on band 1 is forwarded there first
+        assertEquals(1 + 3 * 2, transport.getDelivered());
+        assertEquals((1 + 3 * 2) * CLICK_BYTES, transport.getBytes());
+        assertEquals(4, cluster.getValue(0, 2));
+        assertEquals(2, cluster.getValue(0, 1));
+
+        List<String> expected = scan(reference);
+        assertEquals(Arrays.asList("0,2-0,1"), expected);
+        assertEquals(expected, scan(cluster));
+
+        // Band 1 sends its first row down, band 0 its scanned last row up, and band 1 the reset of
+        // the halo cell to band 0
+        assertEquals(1 + 3 * 2 + 3, transport.getDelivered());
+        assertEquals((1 + 3 * 2) * CLICK_BYTES + 2 * ROW_BYTES + CLICK_BYTES, transport.getBytes());
+        for (int y = 0; y < 4; y++)
+            for (int x = 0; x < 3; x++)
+                assertEquals(reference.getValue(x, y), cluster.getValue(x, y));
+        assertEquals(0, cluster.getValue(0, 1));
+
+        // Nothing is left to reset, and the seam is exchanged again
+        assertEquals(0, cluster.scanResets(null));
+        assertEquals(1 + 3 * 2 + 5, transport.getDelivered());
+    }
+
+    @Test
+    public void testSingleBandSendsNothing() {
+        BandCluster cluster = new BandCluster(3, 4, 1);
+        cluster.click(0, 0);
+        cluster.click(2, 3);
+        cluster.scanResets(null);
+        assertEquals(0, cluster.getTransport().getDelivered());
+    }
+}
@@ -0,0 +1,62 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for dispatching the due events of a step in batches
+ */
+@RunWith(JUnit4.class)
+public class BatchDispatchTest {
+
+    private static final long MS = 1000000L;
+
+    private void compare(boolean coalesce, long seed) {
+        int size = 9;
+        Blinkenlights batched = new Blinkenlights(size, true);
+        Blinkenlights single = new Blinkenlights(size, true);
+        batched.setBatchDispatch(true);
+        batched.setCoalesceClicks(coalesce);
+        single.setCoalesceClicks(coalesce);
+        batched.start(0);
+        single.start(0);
+
+        // Irregular steps, so many events are due at once, at many different times
+        Random r = new Random(seed);
+        long time = 0;
+        for (int tick = 0; tick < 1000; tick++) {
+            int clicks = r.nextInt(3) == 0 ? r.nextInt(20) : 0;
+            for (int i = 0; i < clicks; i++) {
+                int x = r.nextInt(size);
+                int y = r.nextInt(size);
+                batched.click(x, y);
+                single.click(x, y);
+            }
+            time += (1 + r.nextInt(120)) * MS;
+            assertEquals(single.step(time), batched.step(time));
+
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++) {
+                    assertEquals(single.getValue(x, y), batched.getValue(x, y));
+                    assertEquals(single.getNode(x, y).getPenColour(),
+                            batched.getNode(x, y).getPenColour());
+                }
+        }
+        assertEquals(single.getFramePacer().getFrames(), batched.getFramePacer().getFrames());
+    }
+
+    @Test
+    public void testBatchesMatchSingleEvents() {
+        compare(false, 37);
+    }
+
+    @Test
+    public void testBatchesMatchSingleEventsWithCoalescedClicks() {
+        compare(true, 38);
+    }
+}
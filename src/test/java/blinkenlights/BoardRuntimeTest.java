@@ -0,0 +1,85 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.BoardRuntime.Board;
+import blinkenlights.EventFeed.Kind;
+import blinkenlights.EventFeed.OverflowPolicy;
+import blinkenlights.EventFeed.Record;
+import blinkenlights.EventFeed.Subscription;
+
+/**
+ * Unit tests for BoardRuntime
+ */
+@RunWith(JUnit4.class)
+public class BoardRuntimeTest {
+
+    private BoardRuntime runtime;
+
+    @Before
+    public void setup() {
+        runtime = new BoardRuntime(2);
+    }
+
+    @After
+    public void teardown() {
+        runtime.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void testClicksReachTheirBoard() throws InterruptedException {
+        Board[] boards = new Board[200];
+        Subscription[] feeds = new Subscription[boards.length];
+        for (int i = 0; i < boards.length; i++) {
+            boards[i] = runtime.addBoard(5);
+            feeds[i] = boards[i].getSimulation().getFeed().subscribe(16, OverflowPolicy.BLOCK);
+        }
+        assertEquals(boards.length, runtime.getBoardCount());
+
+        for (int i = 0; i < boards.length; i++)
+            boards[i].click(i % 5, (i / 5) % 5);
+
+        for (int i = 0; i < boards.length; i++) {
+            Record r = feeds[i].take();
+            assertEquals(Kind.CLICK, r.getKind());
+            assertEquals(i % 5, r.getX());
+            assertEquals((i / 5) % 5, r.getY());
+        }
+    }
+
+    @Test
+    public void testRemoveBoard() {
+        Board b = runtime.addBoard(3);
+        runtime.removeBoard(b);
+        runtime.removeBoard(b);
+        assertEquals(0, runtime.getBoardCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testClickAfterRemove() throws InterruptedException {
+        Board b = runtime.addBoard(3);
+        Subscription feed = b.getSimulation().getFeed().subscribe(16, OverflowPolicy.BLOCK);
+        assertTrue(b.click(1, 1));
+        assertEquals(Kind.CLICK, feed.take().getKind());
+
+        runtime.removeBoard(b);
+        assertFalse(b.click(2, 2));
+
+        // The click never reached the simulation. Once a step in progress has finished, the shard
+        // no longer steps the board, so step it here.
+        Thread.sleep(100);
+        long time = System.nanoTime() + 1000000000L;
+        b.getSimulation().step(time);
+        b.getSimulation().step(time + 1000000000L);
+        assertNull(feed.poll());
+    }
+}
@@ -0,0 +1,96 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.EventFeed.OverflowPolicy;
+import blinkenlights.EventFeed.Record;
+import blinkenlights.EventFeed.Subscription;
+
+/**
+ * Unit tests for coalescing the clicks of a tick into a ClickBatch
+ */
+@RunWith(JUnit4.class)
+public class ClickBatchTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testCoalescedClicksMatchSingleClicks() {
+        int size = 7;
+        Blinkenlights batched = new Blinkenlights(size, true);
+        Blinkenlights single = new Blinkenlights(size, true);
+        single.setCoalesceClicks(false);
+        batched.setTargetFps(1e9);
+        single.setTargetFps(1e9);
+        Subscription batchedFeed = batched.getFeed().subscribe(100000, OverflowPolicy.BLOCK);
+        Subscription singleFeed = single.getFeed().subscribe(100000, OverflowPolicy.BLOCK);
+        batched.start(0);
+        single.start(0);
+
+        // Events are planned 10ms (click) or 400ms (pen reset) after the step that creates them,
+        // and redraws right away, as the frame rate is not capped. Step every 7ms, so no click is
+        // ever due at the same time as another event, which could then be handled in either order.
+        Random r = new Random(35);
+        long time = 0;
+        for (int tick = 0; tick < 2000; tick++) {
+            int clicks = r.nextInt(4) == 0 ? r.nextInt(12) : 0;
+            for (int i = 0; i < clicks; i++) {
+                // Favour a few rows and columns, so clicks often share them
+                int x = r.nextBoolean() ? 3 : r.nextInt(size);
+                int y = r.nextBoolean() ? 1 : r.nextInt(size);
+                batched.click(x, y);
+                single.click(x, y);
+            }
+            time += 7 * MS;
+            batched.step(time);
+            single.step(time);
+
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++) {
+                    assertEquals(single.getValue(x, y), batched.getValue(x, y));
+                    assertEquals(single.getNode(x, y).getPenColour(),
+                            batched.getNode(x, y).getPenColour());
+                }
+        }
+
+        // Clicks due at the same time are published in the order the queue happens to return them
+        assertEquals(records(singleFeed), records(batchedFeed));
+    }
+
+    private static List<String> records(Subscription feed) {
+        List<String> records = new ArrayList<>();
+        Record r;
+        while ((r = feed.poll()) != null)
+            records.add(r.getKind() + " " + r.getTime() + " " + r.getX() + " " + r.getY() + " "
+                    + r.getOtherX() + " " + r.getOtherY());
+        Collections.sort(records);
+        return records;
+    }
+
+    @Test
+    public void testRowAndColumnCounts() {
+        Blinkenlights board = new Blinkenlights(4, true);
+        board.start(0);
+        board.step(0);
+        board.click(1, 1);
+        board.click(1, 1);
+        board.click(2, 1);
+        board.step(1 * MS);
+        board.step(11 * MS);
+
+        // Row 1 has three clicks, column 1 two and column 2 one
+        int[][] expected = { { 0, 2, 1, 0 }, { 3, 3, 3, 3 }, { 0, 2, 1, 0 }, { 0, 2, 1, 0 } };
+        for (int y = 0; y < 4; y++)
+            for (int x = 0; x < 4; x++)
+                assertEquals("[" + x + ", " + y + "]", expected[y][x], board.getValue(x, y));
+    }
+}
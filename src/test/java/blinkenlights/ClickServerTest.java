@@ -0,0 +1,110 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.EventFeed.Kind;
+import blinkenlights.EventFeed.OverflowPolicy;
+import blinkenlights.EventFeed.Record;
+import blinkenlights.EventFeed.Subscription;
+
+/**
+ * Unit tests for ClickServer
+ */
+@RunWith(JUnit4.class)
+public class ClickServerTest {
+
+    private Blinkenlights board;
+    private ClickServer server;
+    private Subscription feed;
+
+    @Before
+    public void setup() throws Exception {
+        board = new Blinkenlights(5, true);
+        board.start(System.nanoTime());
+        feed = board.getFeed().subscribe(64, OverflowPolicy.DROP_NEWEST);
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        server = new ClickServer(board, any, any);
+        new Thread(server).start();
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    private static ByteBuffer batch(int... xy) {
+        ByteBuffer b = ByteBuffer.allocate(2 + ClickServer.RECORD_SIZE * xy.length / 2);
+        b.putShort((short) (xy.length / 2));
+        for (int i = 0; i < xy.length; i += 2)
+            b.put(ClickServer.GRID).putInt(xy[i]).putInt(xy[i + 1]);
+        b.flip();
+        return b;
+    }
+
+    // Step the board until the expected number of clicks has been handled
+    private Set<String> clicks(int expected) throws InterruptedException {
+        Set<String> result = new HashSet<>();
+        List<Record> records = new ArrayList<>();
+        while (result.size() < expected) {
+            board.step(System.nanoTime());
+            records.clear();
+            feed.drainTo(records, 64);
+            for (Record r : records)
+                if (r.getKind() == Kind.CLICK)
+                    result.add(r.getX() + "," + r.getY());
+            Thread.sleep(5);
+        }
+        return result;
+    }
+
+    @Test(timeout = 10000)
+    public void testTcpAndUdp() throws Exception {
+        InetSocketAddress tcp =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getTcpPort());
+        SocketChannel c = SocketChannel.open(tcp);
+        ByteBuffer b = batch(1, 2, 9, 9);
+        // Send the batch in two parts, splitting a record
+        ByteBuffer first = b.duplicate();
+        first.limit(7);
+        c.write(first);
+        Thread.sleep(50);
+        b.position(7);
+        c.write(b);
+
+        // A user coordinate click on node [3, 4]: radius 0.1, so its centre is at (0.7, 0.9)
+        ByteBuffer user = ByteBuffer.allocate(2 + ClickServer.RECORD_SIZE);
+        user.putShort((short) 1).put(ClickServer.USER).putFloat(0.7f).putFloat(0.9f);
+        user.flip();
+        c.write(user);
+
+        DatagramChannel d = DatagramChannel.open();
+        d.send(batch(0, 0),
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getUdpPort()));
+
+        Set<String> expected = new HashSet<>();
+        expected.add("1,2");
+        expected.add("3,4");
+        expected.add("0,0");
+        assertEquals(expected, clicks(3));
+        assertEquals(3, server.getClicks());
+        assertEquals(1, server.getRejected());
+        c.close();
+        d.close();
+    }
+}
@@ -0,0 +1,93 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for DeltaCodec
+ */
+@RunWith(JUnit4.class)
+public class DeltaCodecTest {
+
+    private static final long MS = 1000000L;
+
+    private Blinkenlights board;
+    private int[] values;
+    private byte[] pens;
+    private int frames;
+    private int keyframes;
+    private int lastSize;
+
+    @Before
+    public void setup() {
+        board = new Blinkenlights(6, true);
+        values = new int[36];
+        pens = new byte[36];
+        final DeltaCodec codec = new DeltaCodec(1000);
+        board.addFrameListener(new FrameListener() {
+            public void frame(Blinkenlights grid, long time) {
+                ByteBuffer frame = codec.encode(grid, grid.getChanged());
+                lastSize = frame.remaining();
+                if (DeltaCodec.isKeyframe(frame))
+                    keyframes++;
+                DeltaCodec.decode(frame, values, pens);
+                assertFalse(frame.hasRemaining());
+                assertInSync();
+                frames++;
+            }
+        });
+    }
+
+    // Events due at the same time as a redraw may follow it, so only a frame matches the grid
+    private void assertInSync() {
+        int[] expectedValues = new int[36];
+        byte[] expectedPens = new byte[36];
+        for (int y = 0; y < 6; y++)
+            for (int x = 0; x < 6; x++) {
+                expectedValues[y * 6 + x] = board.getValue(x, y);
+                expectedPens[y * 6 + x] = DeltaCodec.pen(board.getNode(x, y).getPenColour());
+            }
+        assertArrayEquals(expectedValues, values);
+        assertArrayEquals(expectedPens, pens);
+    }
+
+    @Test
+    public void testDeltasFollowTheGrid() {
+        board.start(0);
+        board.step(0);
+        assertEquals(1, keyframes);
+
+        long time = 0;
+        int[][] clicks = { { 1, 1 }, { 1, 1 }, { 2, 1 }, { 1, 3 }, { 1, 2 }, { 1, 2 }, { 5, 0 } };
+        for (int[] c : clicks) {
+            board.click(c[0], c[1]);
+            for (int i = 0; i < 10; i++) {
+                time += 50 * MS;
+                board.step(time);
+            }
+        }
+        assertEquals(1, keyframes);
+        assertTrue(frames > clicks.length);
+
+        // Nothing changes any more: no more frames, until one is asked for
+        time += 1000 * MS;
+        board.step(time);
+        int idle = frames;
+        time += 1000 * MS;
+        board.step(time);
+        assertEquals(idle, frames);
+        board.requestFrame();
+        board.step(time);
+        assertEquals(idle + 1, frames);
+        assertEquals(17, lastSize);
+    }
+}
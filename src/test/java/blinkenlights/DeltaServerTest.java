@@ -0,0 +1,202 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for DeltaServer, with viewers on real sockets. The test thread plays the simulation
+ * thread, and hands frames to the server directly.
+ */
+@RunWith(JUnit4.class)
+public class DeltaServerTest {
+
+    private static final int SIZE = 300; // Frames of all nodes take about 270KB
+    private static final int KEYFRAME_INTERVAL = 1000;
+    private static final int QUEUE_LIMIT = 4;
+
+    private Blinkenlights board;
+    private DeltaServer server;
+    private int frames = 0;
+
+    // A viewer that records the type and number of every frame it reads
+    private static final class Viewer implements Runnable {
+        private final Socket socket;
+        private final List<String> received = new ArrayList<>();
+
+        private Viewer(int port, int receiveBuffer) throws IOException {
+            socket = new Socket();
+            if (receiveBuffer > 0)
+                socket.setReceiveBufferSize(receiveBuffer);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+
+        private void start() {
+            Thread t = new Thread(this, "viewer");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                while (true) {
+                    byte[] frame = new byte[in.readInt()];
+                    in.readFully(frame);
+                    int number = (frame[1] & 0xff) << 24 | (frame[2] & 0xff) << 16
+                            | (frame[3] & 0xff) << 8 | frame[4] & 0xff;
+                    synchronized (received) {
+                        received.add((char) frame[0] + "" + number);
+                    }
+                }
+            } catch (IOException e) {
+                // Disconnected
+            }
+        }
+
+        private List<String> received() {
+            synchronized (received) {
+                return new ArrayList<>(received);
+            }
+        }
+
+        private int keyframes() {
+            int n = 0;
+            for (String f : received())
+                if (f.charAt(0) == DeltaCodec.KEYFRAME)
+                    n++;
+            return n;
+        }
+    }
+
+    @Before
+    public void setup() throws IOException {
+        board = new Blinkenlights(SIZE, true);
+        // Every delta frame holds every node, so a viewer that does not read soon falls behind
+        board.getChanged().set(0, SIZE * SIZE);
+        server = new DeltaServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                KEYFRAME_INTERVAL, QUEUE_LIMIT);
+        new Thread(server, "delta-server").start();
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    private void frame() throws InterruptedException {
+        server.frame(board, frames++);
+        Thread.sleep(10);
+    }
+
+    private void awaitViewers(int count) throws InterruptedException {
+        while (server.getViewerCount() < count)
+            Thread.sleep(5);
+    }
+
+    private static void awaitFrames(Viewer v, int count) throws InterruptedException {
+        while (v.received().size() < count)
+            Thread.sleep(5);
+    }
+
+    @Test(timeout = 30000)
+    public void testFanOut() throws Exception {
+        Viewer[] viewers = new Viewer[3];
+        for (int i = 0; i < viewers.length; i++) {
+            viewers[i] = new Viewer(server.getPort(), 0);
+            viewers[i].start();
+        }
+        awaitViewers(viewers.length);
+        for (int i = 0; i < 5; i++)
+            frame();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("K0");
+        for (int i = 1; i < 5; i++)
+            expected.add("D" + i);
+        for (Viewer v : viewers) {
+            awaitFrames(v, expected.size());
+            assertEquals(expected, v.received());
+        }
+        assertEquals(0, server.getSkipped());
+    }
+
+    @Test(timeout = 30000)
+    public void testNewViewerStartsWithKeyframe() throws Exception {
+        Viewer first = new Viewer(server.getPort(), 0);
+        first.start();
+        awaitViewers(1);
+        for (int i = 0; i < 3; i++)
+            frame();
+
+        Viewer late = new Viewer(server.getPort(), 0);
+        late.start();
+        awaitViewers(2);
+        frame();
+        frame();
+        awaitFrames(late, 1);
+        assertEquals(DeltaCodec.KEYFRAME, late.received().get(0).charAt(0));
+        awaitFrames(first, 5);
+        assertEquals(2, first.keyframes()); // The keyframe of the new viewer is shared
+    }
+
+    @Test(timeout = 30000)
+    public void testStalledViewer() throws Exception {
+        Viewer fast = new Viewer(server.getPort(), 0);
+        fast.start();
+        Viewer stalled = new Viewer(server.getPort(), 4096); // Connected, but not reading yet
+        awaitViewers(2);
+
+        // The stalled viewer falls behind, and skips frames; the other one does not
+        while (server.getSkipped() == 0)
+            frame();
+        for (int i = 0; i < 2 * QUEUE_LIMIT; i++)
+            frame();
+        awaitFrames(fast, frames);
+        List<String> received = fast.received();
+        assertEquals("K0", received.get(0));
+        for (int i = 0; i < frames; i++)
+            assertEquals(i, number(received.get(i)));
+
+        // Once it reads again, it asks for a keyframe, and is back in step long before the
+        // keyframe interval
+        stalled.start();
+        int resumed = frames;
+        while (true) {
+            received = stalled.received();
+            if (!received.isEmpty() && number(received.get(received.size() - 1)) == frames - 1)
+                break;
+            assertTrue(frames < resumed + 50);
+            frame();
+        }
+        assertTrue(frames < KEYFRAME_INTERVAL);
+
+        // Every gap in the frames it received is followed by a keyframe
+        assertEquals("K0", received.get(0));
+        int gaps = 0;
+        for (int i = 1; i < received.size(); i++)
+            if (number(received.get(i)) != number(received.get(i - 1)) + 1) {
+                assertEquals(DeltaCodec.KEYFRAME, received.get(i).charAt(0));
+                gaps++;
+            }
+        assertTrue(gaps > 0);
+    }
+
+    private static int number(String frame) {
+        return Integer.parseInt(frame.substring(1));
+    }
+}
@@ -0,0 +1,315 @@
+package blinkenlights;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import blinkenlights.EventFeed.Kind;
+import blinkenlights.EventFeed.OverflowPolicy;
+import blinkenlights.EventFeed.Record;
+
+/**
+ * Replays click sequences through a reference engine and a candidate engine, and compares them
+ * after every tick: the values, the pen states (when both engines have pens), and the reset pairs
+ * in scan order. A divergence is shrunk to a minimal click sequence that still reproduces it.
+ * <p>
+ * A click sequence is a list of ticks, each a list of clicks as (x, y) couples. The reference is
+ * the original Node based grid, handling every click as a CLICK event of its own.
+ */
+class DifferentialHarness {
+
+    static final byte NO_PEN = -1;
+
+    // Ticks are long enough for clicks, frames and pen resets to settle, and pen resets never fall
+    // at the same time as clicks
+    private static final long MS = 1000000L;
+    private static final long TICK = 90 * MS;
+
+    /**
+     * An engine under test
+     */
+    interface Engine {
+
+        void click(int x, int y);
+
+        /**
+         * Finish the tick: apply the clicks, and perform the resets
+         *
+         * @return The reset pairs, as "x,y-otherX,otherY", in the order they were reset
+         */
+        List<String> tick();
+
+        int getValue(int x, int y);
+
+        /**
+         * The pen state, as a {@link DeltaCodec} pen byte, or {@link DifferentialHarness#NO_PEN}
+         */
+        byte getPen(int x, int y);
+    }
+
+    /**
+     * Creates fresh engines
+     */
+    interface Factory {
+
+        String getName();
+
+        Engine create(int size);
+    }
+
+    /**
+     * The reference: the Node based grid, one CLICK event per click, events one at a time in order
+     * of time
+     */
+    static final Factory REFERENCE = board("reference", false, false, false);
+
+    /**
+     * A Node based grid
+     *
+     * @param name The name of the configuration
+     * @param coalesce See {@link Blinkenlights#setCoalesceClicks(boolean)}
+     * @param batch See {@link Blinkenlights#setBatchDispatch(boolean)}
+     * @param lanes See {@link Blinkenlights#setPriorityLanes(boolean)}
+     */
+    static Factory board(final String name, final boolean coalesce, final boolean batch,
+            final boolean lanes) {
+        return new Factory() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Engine create(int size) {
+                final Blinkenlights board = new Blinkenlights(size, true);
+                board.setCoalesceClicks(coalesce);
+                board.setBatchDispatch(batch);
+                board.setPriorityLanes(lanes);
+                final EventFeed.Subscription feed =
+                        board.getFeed().subscribe(1 << 16, OverflowPolicy.DROP_OLDEST);
+                board.start(0);
+                return new Engine() {
+                    private long time = 0;
+
+                    @Override
+                    public void click(int x, int y) {
+                        board.click(x, y);
+                    }
+
+                    @Override
+                    public List<String> tick() {
+                        board.step(time);
+                        board.step(time + TICK - MS);
+                        time += TICK;
+                        List<String> resets = new ArrayList<>();
+                        Record r;
+                        while ((r = feed.poll()) != null)
+                            if (r.getKind() == Kind.RESET)
+                                resets.add(pair(r.getX(), r.getY(), r.getOtherX(), r.getOtherY()));
+                        return resets;
+                    }
+
+                    @Override
+                    public int getValue(int x, int y) {
+                        return board.getValue(x, y);
+                    }
+
+                    @Override
+                    public byte getPen(int x, int y) {
+                        return DeltaCodec.pen(board.getNode(x, y).getPenColour());
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates the {@link ValueGrid} of a {@link #values(String, GridFactory)} engine
+     */
+    interface GridFactory {
+        ValueGrid create(int size);
+    }
+
+    /**
+     * A {@link ValueGrid}. It has no pens, and applies the clicks of a tick before a single reset
+     * scan.
+     */
+    static Factory values(final String name, final GridFactory grids) {
+        return new Factory() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Engine create(int size) {
+                final ValueGrid grid = grids.create(size);
+                return new Engine() {
+                    @Override
+                    public void click(int x, int y) {
+                        grid.click(x, y);
+                    }
+
+                    @Override
+                    public List<String> tick() {
+                        final List<String> resets = new ArrayList<>();
+                        grid.scanResets(new ResetListener() {
+                            @Override
+                            public void reset(int x, int y, int otherX, int otherY) {
+                                resets.add(pair(x, y, otherX, otherY));
+                            }
+                        });
+                        return resets;
+                    }
+
+                    @Override
+                    public int getValue(int x, int y) {
+                        return grid.getValue(x, y);
+                    }
+
+                    @Override
+                    public byte getPen(int x, int y) {
+                        return NO_PEN;
+                    }
+                };
+            }
+        };
+    }
+
+    private static String pair(int x, int y, int otherX, int otherY) {
+        return x + "," + y + "-" + otherX + "," + otherY;
+    }
+
+    /**
+     * A random click sequence
+     *
+     * @param seed The seed
+     * @param size The size of the grid
+     * @param ticks The number of ticks
+     * @param maxClicks The most clicks in a tick
+     * @return int[][] with, per tick, the clicks as x, y couples
+     */
+    static int[][] randomClicks(long seed, int size, int ticks, int maxClicks) {
+        Random r = new Random(seed);
+        int[][] clicks = new int[ticks][];
+        for (int t = 0; t < ticks; t++) {
+            clicks[t] = new int[2 * r.nextInt(maxClicks + 1)];
+            for (int i = 0; i < clicks[t].length; i++)
+                clicks[t][i] = r.nextInt(size);
+        }
+        return clicks;
+    }
+
+    /**
+     * Replay a click sequence through both engines
+     *
+     * @return A description of the first divergence, or null if the engines agree throughout
+     */
+    static String compare(Factory reference, Factory candidate, int size, int[][] clicks) {
+        Engine a = reference.create(size);
+        Engine b = candidate.create(size);
+        for (int t = 0; t < clicks.length; t++) {
+            for (int i = 0; i < clicks[t].length; i += 2) {
+                a.click(clicks[t][i], clicks[t][i + 1]);
+                b.click(clicks[t][i], clicks[t][i + 1]);
+            }
+            List<String> resetsA = a.tick();
+            List<String> resetsB = b.tick();
+            if (!resetsA.equals(resetsB))
+                return "tick " + t + ": resets " + resetsA + " but " + resetsB;
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++) {
+                    if (a.getValue(x, y) != b.getValue(x, y))
+                        return "tick " + t + ": [" + x + ", " + y + "] has value " + a.getValue(x, y)
+                                + " but " + b.getValue(x, y);
+                    byte penA = a.getPen(x, y);
+                    byte penB = b.getPen(x, y);
+                    if (penA != NO_PEN && penB != NO_PEN && penA != penB)
+                        return "tick " + t + ": [" + x + ", " + y + "] has pen " + penA + " but "
+                                + penB;
+                }
+        }
+        return null;
+    }
+
+    /**
+     * Shrink a diverging click sequence: drop the ticks after the divergence, then single clicks
+     * and whole ticks, for as long as the engines still diverge
+     *
+     * @return The smallest diverging sequence found
+     */
+    static int[][] shrink(Factory reference, Factory candidate, int size, int[][] clicks) {
+        int[][] best = clicks;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+
+            // Drop trailing ticks
+            while (best.length > 1) {
+                int[][] shorter = Arrays.copyOf(best, best.length - 1);
+                if (compare(reference, candidate, size, shorter) == null)
+                    break;
+                best = shorter;
+                progress = true;
+            }
+
+            // Drop whole ticks, and then single clicks
+            for (int t = 0; t < best.length && best.length > 1; t++) {
+                int[][] fewer = new int[best.length - 1][];
+                System.arraycopy(best, 0, fewer, 0, t);
+                System.arraycopy(best, t + 1, fewer, t, best.length - t - 1);
+                if (compare(reference, candidate, size, fewer) != null) {
+                    best = fewer;
+                    progress = true;
+                    t--;
+                }
+            }
+            for (int t = 0; t < best.length; t++)
+                for (int i = 0; i < best[t].length; i += 2) {
+                    int[][] fewer = best.clone();
+                    fewer[t] = new int[best[t].length - 2];
+                    System.arraycopy(best[t], 0, fewer[t], 0, i);
+                    System.arraycopy(best[t], i + 2, fewer[t], i, best[t].length - i - 2);
+                    if (compare(reference, candidate, size, fewer) != null) {
+                        best = fewer;
+                        progress = true;
+                        i -= 2;
+                    }
+                }
+        }
+        return best;
+    }
+
+    /**
+     * Describe a click sequence, for example <tt>[[1,2 3,4] [] [0,0]]</tt>
+     */
+    static String describe(int[][] clicks) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int t = 0; t < clicks.length; t++) {
+            sb.append(t == 0 ? "[" : " [");
+            for (int i = 0; i < clicks[t].length; i += 2)
+                sb.append(i == 0 ? "" : " ").append(clicks[t][i]).append(',')
+                        .append(clicks[t][i + 1]);
+            sb.append(']');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Check a candidate against the reference on a number of seeded sequences
+     *
+     * @throws AssertionError describing the shrunk sequence of the first divergence
+     */
+    static void check(Factory candidate, int size, int ticks, int maxClicks, long... seeds) {
+        for (long seed : seeds) {
+            int[][] clicks = randomClicks(seed, size, ticks, maxClicks);
+            if (compare(REFERENCE, candidate, size, clicks) == null)
+                continue;
+            int[][] minimal = shrink(REFERENCE, candidate, size, clicks);
+            throw new AssertionError(candidate.getName() + " diverges from the reference (seed "
+                    + seed + ", size " + size + "), shrunk to " + describe(minimal) + ": "
+                    + compare(REFERENCE, candidate, size, minimal));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.DifferentialHarness.Factory;
+import blinkenlights.DifferentialHarness.GridFactory;
+
+/**
+ * Unit tests pitting the alternative engines against the reference model, with DifferentialHarness
+ */
+@RunWith(JUnit4.class)
+public class DifferentialTest {
+
+    private static final int SIZE = 9;
+    private static final int TICKS = 150;
+    private static final int MAX_CLICKS = 3;
+    private static final long[] SEEDS = { 1, 2, 3 };
+
+    private static void check(Factory candidate) {
+        DifferentialHarness.check(candidate, SIZE, TICKS, MAX_CLICKS, SEEDS);
+    }
+
+    @Test
+    public void testCoalescedClicks() {
+        check(DifferentialHarness.board("coalesced", true, false, false));
+    }
+
+    @Test
+    public void testBatchDispatch() {
+        check(DifferentialHarness.board("batch dispatch", false, true, false));
+        check(DifferentialHarness.board("coalesced batch dispatch", true, true, false));
+    }
+
+    @Test
+    public void testPriorityLanes() {
+        check(DifferentialHarness.board("priority lanes", false, false, true));
+        check(DifferentialHarness.board("coalesced priority lanes", true, false, true));
+    }
+
+    private static Factory bands(final int bands) {
+        return DifferentialHarness.values(bands + " bands", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return new BandCluster(size, size, bands);
+            }
+        });
+    }
+
+    @Test
+    public void testValueGrids() {
+        check(DifferentialHarness.values("array", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return new ArrayGrid(size, size);
+            }
+        }));
+        check(DifferentialHarness.values("packed 4", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return new PackedGrid(size, size, 4);
+            }
+        }));
+        check(DifferentialHarness.values("packed 8", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return new PackedGrid(size, size, 8);
+            }
+        }));
+        check(DifferentialHarness.values("sparse", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return new SparseGrid(size, size);
+            }
+        }));
+        check(DifferentialHarness.values("off-heap", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return OffHeapGrid.allocate(size, size);
+            }
+        }));
+        check(DifferentialHarness.values("tiled", new GridFactory() {
+            @Override
+            public ValueGrid create(int size) {
+                return new TiledGrid(size, size);
+            }
+        }));
+        check(bands(1));
+        check(bands(2));
+        check(bands(4)); // Bands of two and three rows
+        check(bands(SIZE)); // Bands of one row, with both halos in other bands
+    }
+
+    // An engine that forgets every third click on the top row
+    private static final Factory BROKEN = DifferentialHarness.values("broken", new GridFactory() {
+        @Override
+        public ValueGrid create(final int size) {
+            return new ArrayGrid(size, size) {
+                private int topClicks = 0;
+
+                @Override
+                public void click(int x, int y) {
+                    if (y == size - 1 && ++topClicks % 3 == 0)
+                        return;
+                    super.click(x, y);
+                }
+            };
+        }
+    });
+
+    @Test
+    public void testShrinksDivergence() {
+        int[][] clicks = DifferentialHarness.randomClicks(4, SIZE, TICKS, MAX_CLICKS);
+        assertNotNull(DifferentialHarness.compare(DifferentialHarness.REFERENCE, BROKEN, SIZE,
+                clicks));
+
+        int[][] minimal =
+                DifferentialHarness.shrink(DifferentialHarness.REFERENCE, BROKEN, SIZE, clicks);
+        assertNotNull(DifferentialHarness.compare(DifferentialHarness.REFERENCE, BROKEN, SIZE,
+                minimal));
+        int count = 0;
+        for (int[] tick : minimal)
+            count += tick.length / 2;
+        assertEquals(3, count); // The third click on the top row is the first one lost
+        assertTrue(DifferentialHarness.describe(minimal).startsWith("[["));
+
+        try {
+            DifferentialHarness.check(BROKEN, SIZE, TICKS, MAX_CLICKS, 4);
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("broken diverges"));
+            return;
+        }
+        fail("divergence not reported");
+    }
+}
@@ -0,0 +1,100 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.EventFeed.Kind;
+import blinkenlights.EventFeed.OverflowPolicy;
+import blinkenlights.EventFeed.Record;
+import blinkenlights.EventFeed.Subscription;
+
+/**
+ * Unit tests for EventFeed
+ */
+@RunWith(JUnit4.class)
+public class EventFeedTest {
+
+    private EventFeed feed;
+    private Node a;
+    private Node b;
+
+    @Before
+    public void setup() {
+        feed = new EventFeed();
+        a = new Node(0.0, 0.0, 0.1, 1, 2, null);
+        b = new Node(0.0, 0.0, 0.1, 1, 3, null);
+    }
+
+    @Test
+    public void testRecordsArriveInOrder() {
+        Subscription s = feed.subscribe(4, OverflowPolicy.DROP_NEWEST);
+        feed.publishClick(10, a);
+        feed.publishReset(20, a, b);
+
+        Record click = s.poll();
+        assertEquals(Kind.CLICK, click.getKind());
+        assertEquals(10, click.getTime());
+        assertEquals(1, click.getX());
+        assertEquals(2, click.getY());
+
+        Record reset = s.poll();
+        assertEquals(Kind.RESET, reset.getKind());
+        assertEquals(1, reset.getOtherX());
+        assertEquals(3, reset.getOtherY());
+        assertNull(s.poll());
+    }
+
+    @Test
+    public void testDropNewest() {
+        Subscription s = feed.subscribe(2, OverflowPolicy.DROP_NEWEST);
+        for (int t = 0; t < 5; t++)
+            feed.publishClick(t, a);
+        assertEquals(2, s.size());
+        assertEquals(3, s.getDropped());
+        assertEquals(0, s.poll().getTime());
+        assertEquals(1, s.poll().getTime());
+    }
+
+    @Test
+    public void testDropOldest() {
+        Subscription s = feed.subscribe(2, OverflowPolicy.DROP_OLDEST);
+        for (int t = 0; t < 5; t++)
+            feed.publishClick(t, a);
+        assertEquals(3, s.getDropped());
+        assertEquals(3, s.poll().getTime());
+        assertEquals(4, s.poll().getTime());
+    }
+
+    @Test(timeout = 5000)
+    public void testBlockAppliesBackPressure() throws InterruptedException {
+        final Subscription s = feed.subscribe(1, OverflowPolicy.BLOCK);
+        Thread publisher = new Thread() {
+            public void run() {
+                for (int t = 0; t < 100; t++)
+                    feed.publishClick(t, a);
+            }
+        };
+        publisher.start();
+        for (int t = 0; t < 100; t++)
+            assertEquals(t, s.take().getTime());
+        publisher.join();
+        assertEquals(0, s.getDropped());
+    }
+
+    @Test
+    public void testCancel() {
+        Subscription s = feed.subscribe(2, OverflowPolicy.BLOCK);
+        assertTrue(feed.hasSubscribers());
+        s.cancel();
+        assertFalse(feed.hasSubscribers());
+        feed.publishClick(0, a);
+        assertNull(s.poll());
+    }
+}
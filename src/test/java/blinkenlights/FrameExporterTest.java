@@ -0,0 +1,121 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.FrameExporter.Format;
+
+/**
+ * Unit tests for FrameExporter
+ */
+@RunWith(JUnit4.class)
+public class FrameExporterTest {
+
+    private static final long MS = 1000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Fast-forward a board with some clicks; returns the number of frames
+    private static long run(Blinkenlights board) {
+        board.start(0);
+        long time = 0;
+        for (int i = 0; i < 40; i++) {
+            board.click(i % board.getWidth(), (i / 2) % board.getHeight());
+            board.step(time += 30 * MS);
+        }
+        board.step(time += 1000 * MS);
+        return board.getFramePacer().getFrames();
+    }
+
+    @Test
+    public void testPngSequence() throws IOException {
+        Blinkenlights board = new Blinkenlights(5, true);
+        File dir = new File(folder.getRoot(), "frames");
+        FrameExporter exporter = new FrameExporter(board, Format.PNG, dir, 20, 3, 4);
+        board.addFrameListener(exporter);
+        long frames = run(board);
+        exporter.close();
+        assertNull(exporter.getFailure());
+        assertEquals(frames, exporter.getWritten());
+        assertEquals(frames, dir.list().length);
+
+        BufferedImage first = ImageIO.read(new File(dir, "frame-000000.png"));
+        assertEquals(100, first.getWidth());
+        assertEquals(100, first.getHeight());
+        // The centre of a node, and the corner between nodes
+        assertEquals(Color.BLACK.getRGB(), first.getRGB(10, 4));
+        assertEquals(Color.WHITE.getRGB(), first.getRGB(0, 0));
+    }
+
+    @Test
+    public void testRawStream() throws IOException {
+        Blinkenlights board = new Blinkenlights(4, true);
+        File file = folder.newFile("frames.rgb");
+        FrameExporter exporter = new FrameExporter(board, Format.RAW, file, 3, 2, 2);
+        board.addFrameListener(exporter);
+        long frames = run(board);
+        exporter.close();
+        assertEquals(frames, exporter.getWritten());
+        assertEquals(frames * 12 * 12 * 3, file.length());
+    }
+
+    @Test(timeout = 10000)
+    public void testEncodeFailure() throws Exception {
+        final Blinkenlights board = new Blinkenlights(3, true);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FrameExporter exporter =
+                new FrameExporter(board, Format.RAW, folder.newFile("frames.rgb"), 2, 1, 2) {
+                    @Override
+                    byte[] encode(BufferedImage img) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new OutOfMemoryError("no memory for the frame");
+                    }
+                };
+
+        // Three frames get past the failure check before the first one fails, which fills the
+        // queue; the third waits for a free snapshot
+        Thread simulation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++)
+                    exporter.frame(board, 0);
+            }
+        });
+        simulation.start();
+        while (simulation.getState() != Thread.State.WAITING)
+            Thread.sleep(1);
+        release.countDown();
+        simulation.join();
+
+        for (int i = 0; i < 10; i++)
+            exporter.frame(board, 0);
+        try {
+            exporter.close();
+            fail("failure not reported");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+        assertEquals(0, exporter.getWritten());
+    }
+}
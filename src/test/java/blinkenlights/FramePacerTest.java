@@ -0,0 +1,62 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for FramePacer
+ */
+@RunWith(JUnit4.class)
+public class FramePacerTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testCapsTheFrameRate() {
+        FramePacer pacer = new FramePacer(20, 100);
+        assertEquals(0, pacer.nextFrame(0));
+        pacer.frameDrawn(0, 0);
+        assertEquals(50 * MS, pacer.nextFrame(10 * MS));
+        assertEquals(70 * MS, pacer.nextFrame(70 * MS));
+        for (int i = 1; i <= 100; i++)
+            pacer.frameDrawn(i * 100 * MS, 0);
+        assertEquals(10.0, pacer.getAchievedFps(), 0.1);
+        assertEquals(20.0, pacer.getTargetFps(), 0.001);
+    }
+
+    @Test
+    public void testBacksOffUnderLoad() {
+        FramePacer pacer = new FramePacer(20, 100);
+        pacer.frameDrawn(0, 101);
+        assertEquals(2, pacer.getBackoff());
+        assertEquals(100 * MS, pacer.nextFrame(0));
+        for (int i = 0; i < 10; i++)
+            pacer.frameDrawn(0, 1000);
+        assertEquals(FramePacer.MAX_BACKOFF, pacer.getBackoff());
+        pacer.frameDrawn(0, 100);
+        assertEquals(FramePacer.MAX_BACKOFF / 2, pacer.getBackoff());
+    }
+
+    @Test
+    public void testOnlyRedrawsWhenChanged() {
+        Blinkenlights board = new Blinkenlights(5, true);
+        board.start(0);
+        assertEquals(Long.MAX_VALUE, board.step(0));
+        assertEquals(1, board.getFramePacer().getFrames());
+
+        // A click, then its frame, then the pen resets and their frame
+        board.click(2, 2);
+        assertEquals(11 * MS, board.step(1 * MS));
+        assertEquals(50 * MS, board.step(11 * MS));
+        assertEquals(411 * MS, board.step(50 * MS));
+        assertEquals(2, board.getFramePacer().getFrames());
+        assertEquals(411 * MS, board.step(400 * MS));
+        assertEquals(Long.MAX_VALUE, board.step(411 * MS));
+        assertEquals(3, board.getFramePacer().getFrames());
+        assertEquals(Long.MAX_VALUE, board.step(10000 * MS));
+        assertEquals(3, board.getFramePacer().getFrames());
+    }
+}
@@ -0,0 +1,126 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for GridStats
+ */
+@RunWith(JUnit4.class)
+public class GridStatsTest {
+
+    private static final long MS = 1000000L;
+    private static final long SECOND = 1000 * MS;
+
+    @Test
+    public void testAggregatesMatchValues() {
+        int width = 9;
+        int height = 7;
+        GridStats stats = new GridStats(width, height, 5);
+        int[][] values = new int[height][width];
+        Random r = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int x = r.nextInt(width);
+            int y = r.nextInt(height);
+            int value = r.nextInt(5) == 0 ? 0 : values[y][x] + 1 + r.nextInt(20);
+            stats.valueChanged(x, y, values[y][x], value);
+            values[y][x] = value;
+        }
+        stats.publish(0);
+
+        long[] histogram = new long[GridStats.HISTOGRAM_SIZE];
+        List<Integer> sorted = new ArrayList<>();
+        long total = 0;
+        for (int y = 0; y < height; y++) {
+            long sum = 0;
+            for (int x = 0; x < width; x++) {
+                histogram[Math.min(values[y][x], GridStats.HISTOGRAM_SIZE - 1)]++;
+                sorted.add(values[y][x]);
+                sum += values[y][x];
+            }
+            assertEquals(sum, stats.getRowSum(y));
+            total += sum;
+        }
+        for (int x = 0; x < width; x++) {
+            long sum = 0;
+            for (int y = 0; y < height; y++)
+                sum += values[y][x];
+            assertEquals(sum, stats.getColumnSum(x));
+        }
+        assertEquals(total, stats.getTotal());
+        for (int v = 0; v < GridStats.HISTOGRAM_SIZE; v++) {
+            assertEquals(histogram[v], stats.getHistogram()[v]);
+            assertEquals(histogram[v], stats.getCount(v));
+        }
+
+        Collections.sort(sorted, Collections.reverseOrder());
+        List<GridStats.Cell> hottest = stats.getHottest();
+        assertEquals(5, hottest.size());
+        for (int i = 0; i < hottest.size(); i++) {
+            GridStats.Cell c = hottest.get(i);
+            assertEquals((int) sorted.get(i), c.getValue());
+            assertEquals(values[c.getY()][c.getX()], c.getValue());
+        }
+    }
+
+    @Test
+    public void testResetRateWindow() {
+        GridStats stats = new GridStats(2, 2, 0);
+        for (int i = 0; i < 30; i++)
+            stats.resetOccurred(i * SECOND / 3); // Three per second, for ten seconds
+        assertEquals(30, stats.getResets());
+        assertEquals(3.0, stats.getResetRate(), 1e-9);
+
+        stats.publish(15 * SECOND);
+        assertEquals(1.2, stats.getResetRate(), 1e-9); // Seconds 6 to 9 are still in the window
+        stats.publish(100 * SECOND);
+        assertEquals(0.0, stats.getResetRate(), 1e-9);
+        assertEquals(30, stats.getResets());
+    }
+
+    @Test
+    public void testFollowsSimulation() {
+        int size = 10;
+        Blinkenlights board = new Blinkenlights(size, true);
+        board.start(0);
+        Random r = new Random(42);
+        long time = 0;
+        for (int tick = 0; tick < 300; tick++) {
+            board.click(r.nextInt(size), r.nextInt(size));
+            time += 7 * MS;
+            board.step(time);
+        }
+        time += SECOND;
+        board.step(time);
+
+        GridStats stats = board.getStats();
+        long[] histogram = new long[GridStats.HISTOGRAM_SIZE];
+        long total = 0;
+        int max = 0;
+        for (int y = 0; y < size; y++) {
+            long sum = 0;
+            for (int x = 0; x < size; x++) {
+                int value = board.getValue(x, y);
+                histogram[Math.min(value, GridStats.HISTOGRAM_SIZE - 1)]++;
+                sum += value;
+                max = Math.max(max, value);
+            }
+            assertEquals(sum, stats.getRowSum(y));
+            total += sum;
+        }
+        assertEquals(total, stats.getTotal());
+        for (int v = 0; v < GridStats.HISTOGRAM_SIZE; v++)
+            assertEquals(histogram[v], stats.getCount(v));
+        assertEquals(max, stats.getHottest().get(0).getValue());
+        assertTrue(stats.getResets() > 0);
+    }
+}
@@ -0,0 +1,145 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.Event.EventType;
+
+/**
+ * Unit tests for LaneQueue, and for handling the events of a grid in priority lanes
+ */
+@RunWith(JUnit4.class)
+public class LaneQueueTest {
+
+    private static final long MS = 1000000L;
+
+    private long sequence = 0;
+
+    private Event event(long time, EventType type) {
+        return new Event(time, null, null, type, sequence++);
+    }
+
+    private static LaneQueue lanes(int starvationLimit) {
+        LaneQueue queue = new LaneQueue(2, starvationLimit);
+        queue.setLane(EventType.COLOR_RESET, 1);
+        return queue;
+    }
+
+    @Test
+    public void testSingleLaneIsTimeOrder() {
+        LaneQueue queue = new LaneQueue(3, 1);
+        Event late = event(5, EventType.CLICK);
+        Event early = event(1, EventType.COLOR_RESET);
+        Event tie = event(1, EventType.CLICK);
+        queue.insert(late);
+        queue.insert(early);
+        queue.insert(tie);
+        assertEquals(1, queue.nextTime());
+        assertNull(queue.next(0));
+        assertSame(early, queue.next(10));
+        assertSame(tie, queue.next(10));
+        assertNull(queue.next(4));
+        assertSame(late, queue.next(10));
+        assertEquals(Long.MAX_VALUE, queue.nextTime());
+    }
+
+    @Test
+    public void testInputBeatsBacklog() {
+        LaneQueue queue = lanes(Integer.MAX_VALUE);
+        for (int i = 0; i < 1000; i++)
+            queue.insert(event(i, EventType.COLOR_RESET));
+        Event click = event(2000, EventType.CLICK);
+        queue.insert(click);
+        assertEquals(0, queue.nextTime());
+        assertSame(click, queue.next(2000));
+        assertEquals(1000, queue.size());
+        assertEquals(1000, queue.size(1));
+        assertEquals(0, queue.next(2000).getTime());
+
+        // A click that is not yet due waits
+        queue.insert(event(3000, EventType.CLICK));
+        assertEquals(EventType.COLOR_RESET, queue.next(2000).getType());
+    }
+
+    @Test
+    public void testStarvationLimit() {
+        LaneQueue queue = lanes(3);
+        Event reset = event(0, EventType.COLOR_RESET);
+        queue.insert(reset);
+        for (int i = 1; i <= 10; i++)
+            queue.insert(event(i, EventType.CLICK));
+        assertEquals(1, queue.next(10).getTime());
+        assertEquals(2, queue.next(10).getTime());
+        assertSame(reset, queue.next(10)); // Passed over twice, and then taken
+        assertEquals(3, queue.next(10).getTime());
+
+        // Only an older event is kept waiting
+        queue.insert(event(20, EventType.COLOR_RESET));
+        for (int i = 4; i <= 10; i++)
+            assertEquals(i, queue.next(20).getTime());
+        assertEquals(EventType.COLOR_RESET, queue.next(20).getType());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testSetLaneMovesPending() {
+        LaneQueue queue = lanes(Integer.MAX_VALUE);
+        Event reset = event(1, EventType.COLOR_RESET);
+        Event click = event(2, EventType.CLICK);
+        queue.insert(reset);
+        queue.insert(click);
+        queue.setLane(EventType.COLOR_RESET, 0);
+        assertEquals(0, queue.getLane(EventType.COLOR_RESET));
+        assertEquals(2, queue.size(0));
+        assertSame(reset, queue.next(2));
+        assertSame(click, queue.delMin());
+        assertNull(queue.delMin());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoSuchLane() {
+        new LaneQueue(2, 1).setLane(EventType.CLICK, 2);
+    }
+
+    @Test
+    public void testGridMatchesTimeOrder() {
+        int size = 9;
+        Blinkenlights lanes = new Blinkenlights(size, true);
+        Blinkenlights ordered = new Blinkenlights(size, true);
+        ordered.setPriorityLanes(false);
+        lanes.setCoalesceClicks(false);
+        ordered.setCoalesceClicks(false);
+        lanes.start(0);
+        ordered.start(0);
+
+        // Irregular steps, so clicks overtake pen resets that are due before them
+        Random r = new Random(48);
+        long time = 0;
+        for (int tick = 0; tick < 1000; tick++) {
+            int clicks = r.nextInt(3) == 0 ? r.nextInt(20) : 0;
+            for (int i = 0; i < clicks; i++) {
+                int x = r.nextInt(size);
+                int y = r.nextInt(size);
+                lanes.click(x, y);
+                ordered.click(x, y);
+            }
+            time += (1 + r.nextInt(120)) * MS;
+            assertEquals(ordered.step(time), lanes.step(time));
+
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++) {
+                    assertEquals(ordered.getValue(x, y), lanes.getValue(x, y));
+                    assertEquals(ordered.getNode(x, y).getPenColour(),
+                            lanes.getNode(x, y).getPenColour());
+                }
+        }
+        assertEquals(ordered.getHandledEvents(), lanes.getHandledEvents());
+    }
+}
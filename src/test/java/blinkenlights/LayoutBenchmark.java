@@ -0,0 +1,97 @@
+package blinkenlights;
+
+import java.util.Random;
+
+/**
+ * Compares the layouts of the grid on column-heavy work: walking every column node by node, and
+ * clicking whole columns, and on walking the neighbours of every node in row-major order, as the
+ * reset scan does. Not a unit test; run it by hand, without assertions enabled, one layout per JVM
+ * so the index function is not shared between layouts. The arguments are the layout (row-major,
+ * tiled or morton) and the sizes of the grid:
+ *
+ * <pre>
+ * $ mvn test-compile
+ * $ java -cp target/classes:target/test-classes blinkenlights.LayoutBenchmark morton 1024 2048
+ * </pre>
+ */
+public class LayoutBenchmark {
+
+    private static final long MS = 1000000L;
+    private static final int ROUNDS = 5;
+
+    private static Layout layout(String name, int size) {
+        switch (name) {
+            case "row-major":
+                return Layout.rowMajor(size, size);
+            case "tiled":
+                return Layout.tiled(size, size, 8);
+            case "morton":
+                return Layout.morton(size, size);
+            default:
+                throw new IllegalArgumentException("unknown layout " + name);
+        }
+    }
+
+    // Sum the values column by column, each through the index function
+    private static long walkColumns(Blinkenlights board, int size) {
+        long sum = 0;
+        for (int x = 0; x < size; x++)
+            for (int y = 0; y < size; y++)
+                sum += board.getValue(x, y);
+        return sum;
+    }
+
+    // The neighbours of every node, in the order of the reset scan
+    private static long walkNeighbours(Blinkenlights board, int size) {
+        long sum = 0;
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++)
+                for (Node n : board.getNode(x, y).getNeighbours())
+                    sum += n.getValue();
+        return sum;
+    }
+
+    private static void run(String name, int size) {
+        Layout layout = layout(name, size);
+        Blinkenlights board = new Blinkenlights(size, true, layout);
+        board.start(0);
+        Random r = new Random(size);
+        long time = 0;
+        long walk = Long.MAX_VALUE;
+        long neighbours = Long.MAX_VALUE;
+        long clicks = Long.MAX_VALUE;
+        long check = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            check += walkColumns(board, size);
+            walk = Math.min(walk, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            check += walkNeighbours(board, size);
+            neighbours = Math.min(neighbours, System.nanoTime() - start);
+
+            // Click the same row over and over, so nearly all the work is in the columns
+            start = System.nanoTime();
+            for (int i = 0; i < 16; i++)
+                board.click(r.nextInt(size), 0);
+            board.step(time += 10 * MS);
+            board.step(time += 10 * MS);
+            clicks = Math.min(clicks, System.nanoTime() - start);
+            board.step(time += 1000 * MS);
+        }
+        System.out.printf("%5d %-10s columns %8.2f ms  neighbours %8.2f ms  clicks %8.2f ms"
+                + "  (%d)%n", size, layout, walk / 1e6, neighbours / 1e6, clicks / 1e6, check);
+    }
+
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0] : "row-major";
+        int[] sizes = { 256, 1024, 2048 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+        for (int size : sizes)
+            run(name, size);
+    }
+}
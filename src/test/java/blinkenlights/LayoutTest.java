@@ -0,0 +1,128 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for Layout
+ */
+@RunWith(JUnit4.class)
+public class LayoutTest {
+
+    private static final long MS = 1000000L;
+
+    // Every cell has its own index, which maps back to the cell
+    private static void checkLayout(Layout layout) {
+        boolean[] used = new boolean[layout.size()];
+        for (int y = 0; y < layout.getHeight(); y++)
+            for (int x = 0; x < layout.getWidth(); x++) {
+                int i = layout.index(x, y);
+                assertFalse(layout + " [" + x + ", " + y + "]", used[i]);
+                used[i] = true;
+                assertEquals(x, layout.x(i));
+                assertEquals(y, layout.y(i));
+                assertTrue(layout.contains(i));
+            }
+        int padding = 0;
+        for (int i = 0; i < used.length; i++)
+            if (!used[i]) {
+                assertFalse(layout.contains(i));
+                padding++;
+            }
+        assertEquals(layout.size() - layout.getWidth() * layout.getHeight(), padding);
+    }
+
+    @Test
+    public void testRowMajor() {
+        Layout layout = Layout.rowMajor(7, 5);
+        checkLayout(layout);
+        assertEquals(35, layout.size());
+        assertEquals(2 * 7 + 3, layout.index(3, 2));
+    }
+
+    @Test
+    public void testTiled() {
+        checkLayout(Layout.tiled(8, 8, 4));
+        checkLayout(Layout.tiled(9, 5, 4));
+        checkLayout(Layout.tiled(3, 3, 1));
+        Layout layout = Layout.tiled(9, 5, 4);
+        assertEquals(3 * 2 * 16, layout.size());
+        assertEquals(16 + 1 * 4 + 0, layout.index(4, 1)); // Second tile, second row
+    }
+
+    @Test
+    public void testMorton() {
+        checkLayout(Layout.morton(8, 8));
+        checkLayout(Layout.morton(9, 3));
+        checkLayout(Layout.morton(1, 1));
+        Layout layout = Layout.morton(9, 3);
+        assertEquals(16 * 16, layout.size());
+        assertEquals(0, layout.index(0, 0));
+        assertEquals(1, layout.index(1, 0));
+        assertEquals(2, layout.index(0, 1));
+        assertEquals(3, layout.index(1, 1));
+        assertEquals(4, layout.index(2, 0));
+        assertEquals(1 << 29, Layout.morton(Layout.MAX_MORTON_SIDE, 1).index(0, 1 << 14));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTileNotPowerOfTwo() {
+        Layout.tiled(8, 8, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMortonTooLarge() {
+        Layout.morton(Layout.MAX_MORTON_SIDE + 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLayoutOfOtherSize() {
+        new Blinkenlights(8, true, Layout.morton(9, 9));
+    }
+
+    // A grid in another layout behaves the same, and reports the same changed nodes
+    private static void compare(Layout layout, long seed) {
+        int size = layout.getWidth();
+        Blinkenlights other = new Blinkenlights(size, true, layout);
+        Blinkenlights rowMajor = new Blinkenlights(size, true);
+        other.setCoalesceClicks(seed % 2 == 0);
+        rowMajor.setCoalesceClicks(seed % 2 == 0);
+        other.start(0);
+        rowMajor.start(0);
+
+        Random r = new Random(seed);
+        long time = 0;
+        for (int tick = 0; tick < 1000; tick++) {
+            int clicks = r.nextInt(3) == 0 ? r.nextInt(20) : 0;
+            for (int i = 0; i < clicks; i++) {
+                int x = r.nextInt(size);
+                int y = r.nextInt(size);
+                other.click(x, y);
+                rowMajor.click(x, y);
+            }
+            time += (1 + r.nextInt(120)) * MS;
+            assertEquals(rowMajor.step(time), other.step(time));
+            assertEquals(rowMajor.toString(), other.toString());
+            for (int y = 0; y < size; y++)
+                for (int x = 0; x < size; x++)
+                    assertEquals(rowMajor.getNode(x, y).getPenColour(),
+                            other.getNode(x, y).getPenColour());
+        }
+        assertEquals(rowMajor.getStats().getResets(), other.getStats().getResets());
+        assertEquals(rowMajor.getHandledEvents(), other.getHandledEvents());
+    }
+
+    @Test
+    public void testGridsMatchRowMajor() {
+        compare(Layout.tiled(9, 9, 4), 49);
+        compare(Layout.morton(9, 9), 50);
+        compare(Layout.morton(9, 9), 51);
+    }
+}
@@ -0,0 +1,132 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for LongIntMap, against a HashMap model
+ */
+@RunWith(JUnit4.class)
+public class LongIntMapTest {
+
+    // The map and the model hold the same entries, and iterate over the same keys
+    private static void check(Map<Long, Integer> model, LongIntMap map) {
+        assertEquals(model.size(), map.size());
+        for (Map.Entry<Long, Integer> e : model.entrySet())
+            assertEquals(e.getValue().intValue(), map.get(e.getKey()));
+        long[] keys = new long[model.size()];
+        int n = 0;
+        for (long k : model.keySet())
+            keys[n++] = k;
+        Arrays.sort(keys);
+        assertArrayEquals(keys, map.sortedKeys());
+    }
+
+    // Apply a random put, add or removal of one of the keys to both the map and the model
+    private static void randomChange(Random r, long[] keys, Map<Long, Integer> model,
+            LongIntMap map) {
+        long key = keys[r.nextInt(keys.length)];
+        Integer old = model.get(key);
+        int value;
+        switch (r.nextInt(3)) {
+            case 0:
+                value = r.nextInt(5) - 2;
+                map.put(key, value);
+                break;
+            case 1:
+                int delta = r.nextInt(3) - 1;
+                value = (old == null ? 0 : old) + delta;
+                assertEquals(value, map.add(key, delta));
+                break;
+            default:
+                value = 0;
+                map.put(key, 0);
+                break;
+        }
+        if (value == 0)
+            model.remove(key);
+        else
+            model.put(key, value);
+    }
+
+    @Test
+    public void testBasics() {
+        LongIntMap map = new LongIntMap();
+        assertEquals(0, map.get(42));
+        map.put(42, 0); // Zero is never stored
+        assertEquals(0, map.size());
+        assertEquals(3, map.add(42, 3));
+        assertEquals(1, map.add(42, -2));
+        assertEquals(0, map.add(42, -1));
+        assertEquals(0, map.size());
+        map.put(Long.MAX_VALUE, 7);
+        assertEquals(7, map.get(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCollidingKeys() {
+        // Keys sharing a few home slots form long probe runs, which wrap around the end of the
+        // table. Removing from the middle of a run must shift back the entries behind it.
+        LongIntMap map = new LongIntMap();
+        List<Long> colliding = new ArrayList<>();
+        int[] homes = { map.slot(0), map.slot(0) ^ 1, 15 };
+        for (long k = 0; colliding.size() < 7; k++)
+            for (int home : homes)
+                if (map.slot(k) == home && colliding.size() < 7) {
+                    colliding.add(k);
+                    break;
+                }
+        long[] keys = new long[colliding.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = colliding.get(i);
+
+        // At most 7 keys in a table of 16 never grow it, so the home slots stay the same
+        Random r = new Random(1);
+        Map<Long, Integer> model = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            randomChange(r, keys, model, map);
+            check(model, map);
+        }
+    }
+
+    @Test
+    public void testGrowthAndDeletes() {
+        Random r = new Random(2);
+        long[] keys = new long[2000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = r.nextInt(1 << 20) * 1024L; // Many keys with the same low bits
+        LongIntMap map = new LongIntMap();
+        Map<Long, Integer> model = new HashMap<>();
+        for (long k : keys) {
+            map.put(k, 1);
+            model.put(k, 1);
+        }
+        check(model, map);
+
+        for (int i = 0; i < 20000; i++)
+            randomChange(r, keys, model, map);
+        check(model, map);
+
+        // Remove every other key, and iterate over what is left
+        for (int i = 0; i < keys.length; i += 2) {
+            map.put(keys[i], 0);
+            model.remove(keys[i]);
+        }
+        check(model, map);
+        for (long k : keys)
+            map.put(k, 0);
+        assertEquals(0, map.size());
+        assertEquals(0, map.sortedKeys().length);
+    }
+}
@@ -0,0 +1,147 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for OffHeapGrid, in direct buffers and in mapped files
+ */
+@RunWith(JUnit4.class)
+public class OffHeapGridTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Click both grids at random, and check that they reset the same pairs and end up equal
+    private static void compare(ValueGrid grid, ArrayGrid reference, long seed) {
+        Random r = new Random(seed);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 3; i++) {
+                int x = r.nextInt(grid.getWidth());
+                int y = r.nextInt(grid.getHeight());
+                grid.click(x, y);
+                reference.click(x, y);
+            }
+            assertEquals(reference.scanResets(null), grid.scanResets(null));
+            for (int y = 0; y < grid.getHeight(); y++)
+                for (int x = 0; x < grid.getWidth(); x++)
+                    assertEquals(reference.getValue(x, y), grid.getValue(x, y));
+        }
+    }
+
+    @Test
+    public void testScanMatchesArrayGrid() {
+        // Grids of one and two rows, and taller ones where the scan window slides
+        int[][] sizes = { { 5, 1 }, { 1, 5 }, { 4, 2 }, { 5, 5 }, { 7, 11 } };
+        for (int[] size : sizes)
+            for (long seed = 0; seed < 5; seed++)
+                compare(OffHeapGrid.allocate(size[0], size[1]), new ArrayGrid(size[0], size[1]),
+                        seed);
+    }
+
+    @Test
+    public void testResetBelowTheScannedRow() {
+        // [4, 0, 0]
+        // [2, 4, 0]
+        // Resetting [0, 0] with [0, 1] leaves [1, 1] without a neighbour of two, although the
+        // scan window still held the old row 1 when [0, 0] was reset
+        OffHeapGrid grid = OffHeapGrid.allocate(3, 2);
+        grid.setValue(0, 0, 4);
+        grid.setValue(0, 1, 2);
+        grid.setValue(1, 1, 4);
+        assertEquals(1, grid.scanResets(null));
+        assertEquals(0, grid.getValue(0, 1));
+        assertEquals(4, grid.getValue(1, 1));
+        assertEquals(OffHeapGrid.STATE_RESET, grid.getState(0, 1));
+        assertEquals(OffHeapGrid.STATE_NORMAL, grid.getState(1, 1));
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "grid.bin");
+        OffHeapGrid grid = OffHeapGrid.map(file, 4, 3);
+        ArrayGrid reference = new ArrayGrid(4, 3);
+        compare(grid, reference, 1);
+        grid.setState(2, 1, OffHeapGrid.STATE_RESET);
+        grid.force();
+        grid.close();
+        assertEquals(16 + 4 * 3 * 5, file.length()); // Header, an int and a state byte per cell
+
+        OffHeapGrid reopened = OffHeapGrid.map(file, 4, 3);
+        try {
+            for (int y = 0; y < 3; y++)
+                for (int x = 0; x < 4; x++)
+                    assertEquals(reference.getValue(x, y), reopened.getValue(x, y));
+            assertEquals(OffHeapGrid.STATE_RESET, reopened.getState(2, 1));
+            compare(reopened, reference, 2);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testSizeMismatch() throws IOException {
+        File file = new File(folder.getRoot(), "grid.bin");
+        OffHeapGrid.map(file, 4, 3).close();
+        try {
+            OffHeapGrid.map(file, 3, 4);
+            fail("a grid of another size was opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("[4 x 3]"));
+        }
+    }
+
+    @Test
+    public void testNotAGrid() throws IOException {
+        File file = new File(folder.getRoot(), "other.bin");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        try {
+            OffHeapGrid.map(file, 2, 2);
+            fail("a file without a grid was opened");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("does not contain a grid"));
+        }
+
+        // The file is left as it was
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(0, raf.readInt());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testSizeLimits() {
+        try {
+            OffHeapGrid.allocate(OffHeapGrid.MAX_WIDTH + 1, 1);
+            fail("a row over 2GB was allocated");
+        } catch (IllegalArgumentException e) {
+            // Expected, before anything is allocated
+        }
+        try {
+            OffHeapGrid.allocate(0, 5);
+            fail("an empty grid was allocated");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
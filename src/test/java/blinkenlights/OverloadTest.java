@@ -0,0 +1,92 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import blinkenlights.Blinkenlights.OverloadPolicy;
+
+/**
+ * Unit tests for the event capacity and overload policies of Blinkenlights
+ */
+@RunWith(JUnit4.class)
+public class OverloadTest {
+
+    private static final long MS = 1000000L;
+    private static final int SIZE = 10;
+
+    @Test
+    public void testShedsPenResetsOnly() {
+        Blinkenlights bounded = new Blinkenlights(SIZE, true);
+        Blinkenlights unbounded = new Blinkenlights(SIZE, true);
+        bounded.setEventCapacity(50, OverloadPolicy.SHED_COSMETIC);
+        bounded.start(0);
+        unbounded.start(0);
+
+        Random r = new Random(38);
+        long time = 0;
+        int maxPending = 0;
+        for (int tick = 0; tick < 500; tick++) {
+            for (int i = 0; i < 5; i++) {
+                int x = r.nextInt(SIZE);
+                int y = r.nextInt(SIZE);
+                assertTrue(bounded.click(x, y));
+                unbounded.click(x, y);
+            }
+            time += 7 * MS;
+            bounded.step(time);
+            unbounded.step(time);
+            maxPending = Math.max(maxPending, bounded.getPendingEvents());
+
+            // Pens are cosmetic, values are not
+            for (int y = 0; y < SIZE; y++)
+                for (int x = 0; x < SIZE; x++)
+                    assertEquals(unbounded.getValue(x, y), bounded.getValue(x, y));
+        }
+        assertTrue(bounded.getShedEvents() > 0);
+        assertTrue("pending " + maxPending, maxPending <= 51);
+        assertTrue(unbounded.getPendingEvents() > 1000);
+
+        // Once quiet, every pen is back to black
+        time += 1000 * MS;
+        bounded.step(time);
+        time += 1000 * MS;
+        bounded.step(time);
+        for (int y = 0; y < SIZE; y++)
+            for (int x = 0; x < SIZE; x++)
+                assertEquals(Color.BLACK, bounded.getNode(x, y).getPenColour());
+    }
+
+    @Test
+    public void testRejectsInputWhenFull() {
+        Blinkenlights board = new Blinkenlights(SIZE, true);
+        board.setEventCapacity(20, OverloadPolicy.REJECT_INPUT);
+        board.start(0);
+        board.step(0);
+
+        // The inbox itself is bounded as well
+        for (int i = 0; i < 20; i++)
+            assertTrue(board.click(i % SIZE, 0));
+        assertFalse(board.click(0, 0));
+        assertEquals(1, board.getRejectedClicks());
+
+        // The clicks fill the queue with pen resets, so new clicks are refused
+        board.step(1 * MS);
+        board.step(11 * MS);
+        assertTrue(board.getPendingEvents() >= 20);
+        assertFalse(board.click(1, 1));
+        assertFalse(board.clickAt(0.55, 0.55));
+        assertEquals(3, board.getRejectedClicks());
+
+        // Until the resets are done
+        board.step(1000 * MS);
+        assertTrue(board.click(1, 1));
+    }
+}
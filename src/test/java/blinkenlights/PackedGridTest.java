@@ -0,0 +1,102 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for PackedGrid
+ */
+@RunWith(JUnit4.class)
+public class PackedGridTest {
+
+    // Straightforward model of the grid rules, one int per cell
+    private static int[][] click(int[][] v, int x, int y) {
+        for (int i = 0; i < v[y].length; i++)
+            v[y][i]++;
+        for (int j = 0; j < v.length; j++)
+            if (j != y)
+                v[j][x]++;
+        return v;
+    }
+
+    private static int scan(int[][] v) {
+        int pairs = 0;
+        int h = v.length;
+        int w = v[0].length;
+        int[][] offsets = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++) {
+                if (v[y][x] != 4)
+                    continue;
+                for (int[] o : offsets) {
+                    int nx = x + o[0];
+                    int ny = y + o[1];
+                    if (nx >= 0 && nx < w && ny >= 0 && ny < h && v[ny][nx] == 2) {
+                        v[y][x] = 0;
+                        v[ny][nx] = 0;
+                        pairs++;
+                        break;
+                    }
+                }
+            }
+        return pairs;
+    }
+
+    private void compare(int width, int height, int bits, long seed) {
+        Random r = new Random(seed);
+        PackedGrid grid = new PackedGrid(width, height, bits);
+        int[][] model = new int[height][width];
+        int pairs = 0;
+        for (int tick = 0; tick < 300; tick++) {
+            int clicks = r.nextInt(3);
+            for (int c = 0; c < clicks; c++) {
+                int x = r.nextInt(width);
+                int y = r.nextInt(height);
+                grid.click(x, y);
+                click(model, x, y);
+            }
+            int expected = scan(model);
+            assertEquals(expected, grid.scanResets(null));
+            pairs += expected;
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++)
+                    assertEquals("cell [" + x + "," + y + "]", model[y][x], grid.getValue(x, y));
+        }
+        assertTrue("no resets exercised", pairs > 0);
+    }
+
+    @Test
+    public void testFourBitLanes() {
+        compare(7, 5, 4, 1);
+        compare(16, 16, 4, 2);
+        compare(37, 3, 4, 3);
+    }
+
+    @Test
+    public void testEightBitLanes() {
+        compare(9, 9, 8, 4);
+        compare(8, 12, 8, 5);
+    }
+
+    @Test
+    public void testPromotion() {
+        PackedGrid grid = new PackedGrid(20, 2, 4);
+        for (int i = 0; i < 40; i++)
+            grid.incrementRow(0);
+        assertEquals(40, grid.getValue(19, 0));
+        assertEquals(0, grid.getValue(19, 1));
+        assertTrue(grid.getPromoted() == 20);
+
+        grid.setValue(3, 0, 4);
+        grid.setValue(3, 1, 2);
+        assertEquals(19, grid.getPromoted());
+        assertEquals(1, grid.scanResets(null));
+        assertEquals(0, grid.getValue(3, 0));
+    }
+}
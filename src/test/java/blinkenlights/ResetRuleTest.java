@@ -0,0 +1,79 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for ResetRule, in both the Node based grid and the ArrayGrid
+ */
+@RunWith(JUnit4.class)
+public class ResetRuleTest {
+
+    private static final long MS = 1000000L;
+
+    private static final ResetRule[] RULES = { ResetRule.DEFAULT, ResetRule.pairs(1, 3, 1, 5, 2),
+            ResetRule.pairs(1, 2, 2), ResetRule.pairs(2, 4, 2, 4, 3),
+            ResetRule.modular(3, 1, 1, 2), ResetRule.modular(4, 3, 3, 1, 3, 2) };
+
+    @Test
+    public void testTable() {
+        ResetRule rule = ResetRule.pairs(1, 4, 2, 4, 62);
+        assertTrue(rule.matches(4, 2));
+        assertFalse(rule.matches(2, 4));
+        assertTrue(rule.matches(4, 62));
+        assertFalse(rule.matches(4, 63));
+        assertFalse(rule.matches(4, 1000));
+        assertFalse(rule.matches(0, 2));
+
+        ResetRule modular = ResetRule.modular(5, 1, 4, 2);
+        assertTrue(modular.matches(9, 12));
+        assertFalse(modular.matches(9, 10));
+        assertEquals("modular(5, 1, 4, 2)", modular.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCanNotPair() {
+        ResetRule.pairs(1, 4, 0);
+    }
+
+    @Test
+    public void testNodesAndArrayAgree() {
+        Random r = new Random(39);
+        for (ResetRule rule : RULES) {
+            int size = 6;
+            Blinkenlights board = new Blinkenlights(size, true);
+            board.setResetRule(rule);
+            ArrayGrid array = new ArrayGrid(size, size, rule);
+            board.start(0);
+            long time = 0;
+            int resets = 0;
+            for (int round = 0; round < 300; round++) {
+                int clicks = 1 + r.nextInt(3);
+                for (int i = 0; i < clicks; i++) {
+                    int x = r.nextInt(size);
+                    int y = r.nextInt(size);
+                    board.click(x, y);
+                    array.click(x, y);
+                }
+                // Apply the clicks, then scan in the next frame
+                board.step(time += MS);
+                board.step(time += 10 * MS);
+                board.step(time += 100 * MS);
+                resets += array.scanResets(null);
+
+                for (int y = 0; y < size; y++)
+                    for (int x = 0; x < size; x++)
+                        assertEquals(rule + " [" + x + ", " + y + "]", board.getValue(x, y),
+                                array.getValue(x, y));
+            }
+            assertTrue(rule + " never reset", resets > 0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for SparseGrid
+ */
+@RunWith(JUnit4.class)
+public class SparseGridTest {
+
+    @Test
+    public void testMatchesArrayGrid() {
+        Random r = new Random(3);
+        SparseGrid grid = new SparseGrid(6, 5);
+        ArrayGrid reference = new ArrayGrid(6, 5);
+        for (int round = 0; round < 200; round++) {
+            int x = r.nextInt(6);
+            int y = r.nextInt(5);
+            grid.click(x, y);
+            reference.click(x, y);
+            assertEquals(reference.scanResets(null), grid.scanResets(null));
+            for (int j = 0; j < 5; j++)
+                for (int i = 0; i < 6; i++)
+                    assertEquals(reference.getValue(i, j), grid.getValue(i, j));
+        }
+    }
+
+    @Test
+    public void testMemoryFollowsTheClicks() {
+        // A trillion cells, of which only the clicked rows and columns are non-zero
+        int size = 1000000;
+        SparseGrid grid = new SparseGrid(size, size);
+        assertEquals(0, grid.getEntries());
+        // Nothing is clicked, so there is nothing to scan, and nothing to correct
+        assertEquals(0, grid.scanResets(null));
+        assertEquals(0, grid.getEntries());
+
+        Random r = new Random(4);
+        int clicks = 1000;
+        for (int i = 0; i < clicks; i++)
+            grid.click(r.nextInt(size), r.nextInt(size));
+        // A counter for the row and the column, and a correction for the cell, per click
+        assertTrue(grid.getEntries() <= 3 * clicks);
+
+        // A cell set to its row and column count needs no correction, any other value does
+        int entries = grid.getEntries();
+        grid.setValue(7, 7, grid.getValue(7, 7) + 1);
+        assertEquals(entries + 1, grid.getEntries());
+        grid.setValue(7, 7, grid.getValue(7, 7) - 1);
+        assertEquals(entries, grid.getEntries());
+    }
+
+    @Test
+    public void testScanFollowsTheClicks() {
+        // The scan visits whole clicked rows, so the clicks stay in two rows and three columns
+        int size = 1000000;
+        SparseGrid grid = new SparseGrid(size, size);
+        int[][] clicks = { { 5, 3 }, { 6, 3 }, { 5, 4 }, { 7, 4 }, { 5, 3 }, { 6, 4 } };
+        for (int[] c : clicks)
+            grid.click(c[0], c[1]);
+        int entries = grid.getEntries();
+        assertTrue(entries <= 2 + 3 + clicks.length);
+
+        // A reset corrects its two cells, and nothing else is added
+        int pairs = grid.scanResets(null);
+        assertTrue(grid.getEntries() <= entries + 2 * pairs);
+        assertEquals(0, grid.scanResets(null));
+    }
+
+    @Test
+    public void testResetsAreCorrections() {
+        // Rows 0 to 2:
+        // [2, 1]
+        // [4, 2]
+        // [2, 1]
+        SparseGrid grid = new SparseGrid(2, 3);
+        int[][] values = { { 2, 1 }, { 4, 2 }, { 2, 1 } };
+        for (int y = 0; y < 3; y++)
+            for (int x = 0; x < 2; x++)
+                grid.setValue(x, y, values[y][x]);
+        assertEquals(6, grid.getEntries());
+
+        // [0, 1] pairs with its right neighbour; the corrections now cancel the values exactly
+        assertEquals(1, grid.scanResets(null));
+        assertEquals(0, grid.getValue(0, 1));
+        assertEquals(0, grid.getValue(1, 1));
+        assertEquals(4, grid.getEntries());
+    }
+}
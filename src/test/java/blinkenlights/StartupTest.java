@@ -0,0 +1,82 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for building the grid, sequentially and in parallel, and the startup timings
+ */
+@RunWith(JUnit4.class)
+public class StartupTest {
+
+    private static final long MS = 1000000L;
+
+    // Every node has its existing neighbours, in the order left, right, down, up
+    private static void checkNeighbours(Blinkenlights board, int size) {
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++) {
+                Node node = board.getNode(x, y);
+                assertEquals(x, node.getCoord().x);
+                assertEquals(y, node.getCoord().y);
+                Node[] neighbours = node.getNeighbours();
+                int i = 0;
+                if (x > 0)
+                    assertSame(board.getNode(x - 1, y), neighbours[i++]);
+                if (x < size - 1)
+                    assertSame(board.getNode(x + 1, y), neighbours[i++]);
+                if (y > 0)
+                    assertSame(board.getNode(x, y - 1), neighbours[i++]);
+                if (y < size - 1)
+                    assertSame(board.getNode(x, y + 1), neighbours[i++]);
+                assertEquals(i, neighbours.length);
+            }
+    }
+
+    @Test
+    public void testSequentialBuild() {
+        checkNeighbours(new Blinkenlights(7, true), 7);
+        checkNeighbours(new Blinkenlights(1, true), 1);
+    }
+
+    @Test
+    public void testParallelBuild() {
+        int size = 300; // Beyond the threshold for a parallel build
+        Blinkenlights board = new Blinkenlights(size, true);
+        checkNeighbours(board, size);
+
+        board.start(0);
+        board.click(size / 2, size / 3);
+        board.step(10 * MS);
+        board.step(20 * MS);
+        assertEquals(1, board.getValue(size / 2, size / 3));
+        assertEquals(1, board.getValue(0, size / 3));
+        assertEquals(1, board.getValue(size / 2, size - 1));
+        assertEquals(0, board.getValue(size / 2 + 1, size / 3 + 1));
+    }
+
+    @Test
+    public void testParallelBuildInLayout() {
+        checkNeighbours(new Blinkenlights(300, true, Layout.morton(300, 300)), 300);
+        checkNeighbours(new Blinkenlights(300, true, Layout.tiled(300, 300, 8)), 300);
+    }
+
+    @Test
+    public void testStartupTimes() {
+        Blinkenlights board = new Blinkenlights(8, true);
+        assertTrue(board.getBuildTime() >= 0);
+        assertEquals(-1, board.getTimeToFirstEvent());
+
+        board.start(0);
+        board.step(0);
+        long first = board.getTimeToFirstEvent();
+        assertTrue(first >= board.getBuildTime());
+        board.click(1, 1);
+        board.step(10 * MS);
+        assertEquals(first, board.getTimeToFirstEvent());
+    }
+}
@@ -0,0 +1,49 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for SummaryPyramid
+ */
+@RunWith(JUnit4.class)
+public class SummaryPyramidTest {
+
+    @Test
+    public void testBlocksSumTheirCells() {
+        int width = 13;
+        int height = 6;
+        SummaryPyramid pyramid = new SummaryPyramid(width, height);
+        assertEquals(5, pyramid.getLevels());
+
+        int[][] values = new int[height][width];
+        Random r = new Random(40);
+        for (int i = 0; i < 500; i++) {
+            int x = r.nextInt(width);
+            int y = r.nextInt(height);
+            values[y][x] = r.nextInt(10);
+            pyramid.set(x, y, values[y][x]);
+        }
+
+        for (int level = 0; level < pyramid.getLevels(); level++) {
+            int size = 1 << level;
+            for (int by = 0; by * size < height; by++)
+                for (int bx = 0; bx * size < width; bx++) {
+                    long sum = 0;
+                    int cells = 0;
+                    for (int y = by * size; y < Math.min(height, (by + 1) * size); y++)
+                        for (int x = bx * size; x < Math.min(width, (bx + 1) * size); x++) {
+                            sum += values[y][x];
+                            cells++;
+                        }
+                    assertEquals(sum, pyramid.getSum(level, bx, by));
+                    assertEquals((double) sum / cells, pyramid.getMean(level, bx, by), 1e-9);
+                }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for TiledGrid
+ */
+@RunWith(JUnit4.class)
+public class TiledGridTest {
+
+    private static void assertSameValues(ValueGrid expected, ValueGrid actual) {
+        for (int y = 0; y < expected.getHeight(); y++)
+            for (int x = 0; x < expected.getWidth(); x++)
+                assertEquals("[" + x + ", " + y + "]", expected.getValue(x, y),
+                        actual.getValue(x, y));
+    }
+
+    // Collects resets as strings, to compare the scan order
+    private static final class Recorder implements ResetListener {
+        private final List<String> resets = new ArrayList<>();
+
+        @Override
+        public void reset(int x, int y, int otherX, int otherY) {
+            resets.add(x + "," + y + "-" + otherX + "," + otherY);
+        }
+    }
+
+    private void compare(int width, int height, ResetRule rule, long seed) {
+        Random r = new Random(seed);
+        ArrayGrid array = new ArrayGrid(width, height, rule);
+        TiledGrid tiled = new TiledGrid(width, height, rule);
+        for (int tick = 0; tick < 300; tick++) {
+            for (int c = r.nextInt(3); c > 0; c--) {
+                int x = r.nextInt(width);
+                int y = r.nextInt(height);
+                array.click(x, y);
+                tiled.click(x, y);
+            }
+            Recorder expected = new Recorder();
+            Recorder actual = new Recorder();
+            assertEquals(array.scanResets(expected), tiled.scanResets(actual));
+            assertEquals(expected.resets, actual.resets);
+            assertSameValues(array, tiled);
+        }
+    }
+
+    @Test
+    public void testMatchesArrayGrid() {
+        compare(5, 7, ResetRule.DEFAULT, 1);
+        compare(37, 20, ResetRule.DEFAULT, 2);
+        compare(16, 33, ResetRule.modular(5, 1, 4, 2, 3, 1), 3);
+        compare(1, 40, ResetRule.DEFAULT, 4);
+    }
+
+    @Test
+    public void testForksAreIndependent() {
+        TiledGrid base = new TiledGrid(40, 40);
+        base.click(3, 5);
+        TiledGrid fork = base.fork();
+        assertEquals(0, base.countDifferences(fork));
+
+        fork.click(30, 35);
+        base.setValue(0, 0, 9);
+        assertEquals(1, base.getValue(30, 5));
+        assertEquals(2, fork.getValue(30, 5));
+        assertEquals(9, base.getValue(0, 0));
+        assertEquals(0, fork.getValue(0, 0));
+
+        ArrayGrid expected = new ArrayGrid(40, 40);
+        expected.click(3, 5);
+        expected.click(30, 35);
+        assertSameValues(expected, fork);
+
+        // A fork of a fork leaves both alone
+        TiledGrid second = fork.fork();
+        second.click(0, 0);
+        assertSameValues(expected, fork);
+        assertEquals(79, fork.countDifferences(second));
+    }
+
+    @Test
+    public void testScheduledClicksAreForked() {
+        TiledGrid base = new TiledGrid(20, 20);
+        base.schedule(30, 1, 1);
+        base.schedule(10, 2, 2);
+        base.schedule(20, 3, 3);
+        assertEquals(10, base.getNextTime());
+
+        TiledGrid fork = base.fork();
+        fork.schedule(15, 4, 4);
+        assertEquals(3, base.getPending());
+        assertEquals(4, fork.getPending());
+
+        base.advance(20, null);
+        assertEquals(1, base.getPending());
+        assertEquals(30, base.getNextTime());
+        assertEquals(4, fork.getPending());
+
+        fork.advance(100, null);
+        assertEquals(0, fork.getPending());
+        assertEquals(Long.MAX_VALUE, fork.getNextTime());
+        ArrayGrid expected = new ArrayGrid(20, 20);
+        expected.click(2, 2);
+        expected.scanResets(null);
+        expected.click(4, 4);
+        expected.scanResets(null);
+        expected.click(3, 3);
+        expected.scanResets(null);
+        expected.click(1, 1);
+        expected.scanResets(null);
+        assertSameValues(expected, fork);
+    }
+
+    @Test
+    public void testBranchesRunInParallel() throws Exception {
+        final int size = 64;
+        final TiledGrid base = new TiledGrid(size, size);
+        Random r = new Random(43);
+        for (int i = 0; i < 50; i++)
+            base.schedule(i, r.nextInt(size), r.nextInt(size));
+        base.advance(25, null);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<TiledGrid> branches = new ArrayList<>();
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int b = 0; b < 8; b++) {
+                final TiledGrid branch = base.fork();
+                final long seed = b;
+                branches.add(branch);
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        Random br = new Random(seed);
+                        for (int i = 0; i < 20; i++)
+                            branch.schedule(30 + i, br.nextInt(size), br.nextInt(size));
+                        return branch.advance(Long.MAX_VALUE, null);
+                    }
+                }));
+            }
+
+            // Each branch ends up as if it had run alone, and the base is untouched
+            for (int b = 0; b < branches.size(); b++) {
+                results.get(b).get();
+                TiledGrid alone = new TiledGrid(size, size);
+                Random ar = new Random(43);
+                for (int i = 0; i < 50; i++)
+                    alone.schedule(i, ar.nextInt(size), ar.nextInt(size));
+                Random br = new Random(b);
+                for (int i = 0; i < 20; i++)
+                    alone.schedule(30 + i, br.nextInt(size), br.nextInt(size));
+                alone.advance(Long.MAX_VALUE, null);
+                assertSameValues(alone, branches.get(b));
+                assertEquals(24, base.getPending());
+            }
+            assertTrue(branches.get(0).countDifferences(base) > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package blinkenlights;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for Tracing. Like {@link FlightEvents}, they are built against JFR, so they always
+ * run: a JDK that can build the project has JFR.
+ */
+@RunWith(JUnit4.class)
+public class TracingTest {
+
+    private static final long MS = 1000000L;
+    private static final int SIZE = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<RecordedEvent> record(boolean coalesce) throws Exception {
+        Blinkenlights board = new Blinkenlights(SIZE, true);
+        board.setCoalesceClicks(coalesce);
+        File file = folder.newFile("trace.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] { "Step", "Click", "Reset", "Frame" })
+                recording.enable("blinkenlights." + name).withoutThreshold();
+            recording.start();
+
+            board.start(0);
+            long time = 0;
+            board.click(2, 3);
+            board.step(time += 7 * MS);
+            board.step(time += 7 * MS);
+            board.click(2, 3); // [2, 3] becomes 4, next to [1, 3] of 2
+            board.click(2, 4);
+            board.click(2, 4);
+            board.step(time += 7 * MS);
+            board.step(time += 7 * MS);
+            board.step(time += 1000 * MS);
+
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        return RecordingFile.readAllEvents(file.toPath());
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> found = new ArrayList<>();
+        for (RecordedEvent e : events)
+            if (e.getEventType().getName().equals("blinkenlights." + name))
+                found.add(e);
+        return found;
+    }
+
+    @Test
+    public void testSingleClicks() throws Exception {
+        List<RecordedEvent> events = record(false);
+        List<RecordedEvent> clicks = named(events, "Click");
+        assertEquals(4, clicks.size());
+        RecordedEvent first = clicks.get(0);
+        assertEquals(2, first.getInt("originX"));
+        assertEquals(3, first.getInt("originY"));
+        assertEquals(1, first.getInt("clicks"));
+        assertEquals(2 * SIZE - 1, first.getLong("fanOut"));
+
+        assertTrue(named(events, "Reset").size() > 0);
+        assertTrue(named(events, "Frame").size() > 0);
+        assertTrue(named(events, "Step").size() > 0);
+    }
+
+    @Test
+    public void testCoalescedClicks() throws Exception {
+        List<RecordedEvent> events = record(true);
+        List<RecordedEvent> clicks = named(events, "Click");
+        assertEquals(2, clicks.size());
+        assertEquals(2 * SIZE - 1, clicks.get(0).getLong("fanOut"));
+        assertEquals(-1, clicks.get(1).getInt("originX"));
+        assertEquals(3, clicks.get(1).getInt("clicks"));
+
+        long resets = 0;
+        for (RecordedEvent frame : named(events, "Frame"))
+            resets += frame.getInt("resets");
+        assertEquals(named(events, "Reset").size(), resets);
+        assertTrue(resets > 0);
+    }
+}